@@ -0,0 +1,96 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Stops sending operations to a database which keeps failing.
+ * <p>
+ * After {@link #failureThreshold} consecutive failures the breaker opens and rejects every request for
+ * {@link #openNanos}. It then lets a single probe through: the breaker closes if the probe succeeds and opens
+ * again if it fails.
+ */
+@Restricted(NoExternalUse.class)
+public class CircuitBreaker {
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final long DEFAULT_OPEN_SECONDS = 30;
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_SECONDS, TimeUnit.SECONDS, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openDuration, TimeUnit unit, LongSupplier clock) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openNanos = unit.toNanos(openDuration);
+        this.clock = clock;
+    }
+
+    /**
+     * Returns whether a request may be sent to the database. Every allowed request must be followed by
+     * {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openNanos) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    synchronized void recordSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probing = false;
+    }
+
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        probing = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Returns whether requests are currently rejected without reaching the database.
+     */
+    synchronized boolean isOpen() {
+        return state == State.OPEN && clock.getAsLong() - openedAt < openNanos;
+    }
+}
@@ -13,4 +13,22 @@ public class ColumnName {
     static final String FACETS = "facets";
     static final String TOTAL = "total";
     static final String FINGERPRINT_EXISTS = "fingerprint_exists";
+    static final String FINGERPRINT_ID = "fingerprint_id";
+    static final String SEQUENCE_ID = "sequence_id";
+    static final String CHANGE_TYPE = "change_type";
+    static final String CHANGE_TIMESTAMP = "change_timestamp";
+    static final String JOB = "job";
+    static final String BUILD_NUMBER = "build_number";
+    static final String FACET_NAME = "facet_name";
+    static final String FACET_ENTRY = "facet_entry";
+    static final String DELETION_BLOCKED = "deletion_blocked";
+    static final String MIGRATION_ID = "migration_id";
+    static final String STATUS = "status";
+    static final String PROGRESS = "progress";
+    static final String INSTANCE_ID = "instance_id";
+    static final String JOB_COUNT = "job_count";
+    static final String BUILD_COUNT = "build_count";
+    static final String FINGERPRINT_COUNT = "fingerprint_count";
+    static final String USAGE_COUNT = "usage_count";
+    static final String UPDATED = "updated";
 }
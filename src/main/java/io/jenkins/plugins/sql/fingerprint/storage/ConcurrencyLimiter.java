@@ -0,0 +1,151 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Adaptive limit on the number of fingerprint operations running against the database at the same time.
+ * <p>
+ * The limit follows an additive-increase/multiplicative-decrease (AIMD) policy: it grows by one every time an
+ * operation completes while the limit is being used, and shrinks by {@link #BACKOFF_RATIO} every time an
+ * operation is dropped because the database timed out. Callers which cannot get a permit within the allowed
+ * wait are rejected instead of piling up behind a slow database.
+ */
+@Restricted(NoExternalUse.class)
+public class ConcurrencyLimiter {
+
+    static final double BACKOFF_RATIO = 0.5;
+    static final int MIN_LIMIT = 1;
+
+    private final int maxLimit;
+    private final int maxQueued;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long rejected;
+    private long waitNanos;
+
+    /**
+     * @param maxLimit Upper bound of the limit, also used as the initial limit.
+     * @param maxQueued Maximum number of callers waiting for a permit, further callers are rejected right away.
+     */
+    ConcurrencyLimiter(int maxLimit, int maxQueued) {
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.limit = this.maxLimit;
+    }
+
+    /**
+     * Waits up to the given time for a permit.
+     * @return the permit which must be closed once the operation completes, or {@code null} if the operation was
+     * rejected.
+     */
+    @CheckForNull
+    Permit acquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long start = System.nanoTime();
+        long remaining = unit.toNanos(timeout);
+        synchronized (this) {
+            if (inFlight >= getLimit()) {
+                if (queued >= maxQueued) {
+                    rejected++;
+                    return null;
+                }
+                queued++;
+                try {
+                    while (inFlight >= getLimit()) {
+                        if (remaining <= 0) {
+                            rejected++;
+                            return null;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                        remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+                    }
+                } finally {
+                    queued--;
+                    waitNanos += System.nanoTime() - start;
+                }
+            }
+            inFlight++;
+            return new Permit(System.nanoTime());
+        }
+    }
+
+    private synchronized void release(boolean succeeded, boolean dropped) {
+        if (dropped) {
+            limit = Math.max(MIN_LIMIT, limit * BACKOFF_RATIO);
+        } else if (succeeded && inFlight >= getLimit()) {
+            limit = Math.min(maxLimit, limit + 1);
+        }
+        inFlight--;
+        notifyAll();
+    }
+
+    /**
+     * Returns the current number of operations allowed to run concurrently.
+     */
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of operations rejected since startup.
+     */
+    synchronized long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * Returns the total time spent by callers waiting for a permit.
+     */
+    synchronized long getWaitNanos() {
+        return waitNanos;
+    }
+
+    /**
+     * Permission to run one operation, see {@link #acquire(long, TimeUnit)}.
+     */
+    final class Permit implements AutoCloseable {
+
+        private final long startNanos;
+        private boolean succeeded;
+        private boolean dropped;
+        private boolean closed;
+
+        private Permit(long startNanos) {
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Marks the operation as completed successfully, allowing the limit to grow.
+         */
+        void succeeded() {
+            succeeded = true;
+        }
+
+        /**
+         * Marks the operation as dropped because the database could not keep up, shrinking the limit.
+         */
+        void dropped() {
+            dropped = true;
+        }
+
+        long getElapsedNanos() {
+            return System.nanoTime() - startNanos;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(succeeded, dropped);
+            }
+        }
+    }
+}
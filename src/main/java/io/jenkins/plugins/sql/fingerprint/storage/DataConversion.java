@@ -6,11 +6,16 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.model.Fingerprint;
 import java.sql.ResultSet;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
+import jenkins.model.FingerprintFacet;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.kohsuke.accmod.Restricted;
@@ -109,6 +114,76 @@ public class DataConversion {
         return json.toString();
     }
 
+    /**
+     * Converts the columns of a fingerprint read from the database to a fingerprint.
+     */
+    static @NonNull Fingerprint toFingerprint(
+            @NonNull String id,
+            @NonNull Timestamp timestamp,
+            @NonNull String filename,
+            @CheckForNull String originalJobName,
+            @CheckForNull String originalJobBuildNumber,
+            @CheckForNull String usagesAsJSONString,
+            @CheckForNull String facetsAsJSONString) {
+        Map<String, String> fingerprintMetadata =
+                extractFingerprintMetadata(id, timestamp, filename, originalJobName, originalJobBuildNumber);
+        Map<String, Fingerprint.RangeSet> usageMetadata = extractUsageMetadata(usagesAsJSONString);
+        JSONArray facets = extractFacets(facetsAsJSONString);
+        String json = constructFingerprintJSON(fingerprintMetadata, usageMetadata, facets);
+        return (Fingerprint) XStreamHandler.getXStream().fromXML(json);
+    }
+
+    /**
+     * Returns the build numbers of every job using the fingerprint, one usage row each in the database.
+     */
+    static @NonNull Map<String, List<Integer>> toUsageRows(@NonNull Fingerprint fingerprint) {
+        Hashtable<String, Fingerprint.RangeSet> usages = fingerprint.getUsages();
+        if (usages == null || usages.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<Integer>> rows = new LinkedHashMap<>();
+        for (Map.Entry<String, Fingerprint.RangeSet> usage : usages.entrySet()) {
+            rows.put(usage.getKey(), usage.getValue().listNumbers());
+        }
+        return rows;
+    }
+
+    /**
+     * Converts the persisted facets of the fingerprint to the entries stored in the database.
+     */
+    static @NonNull List<FacetEntry> toFacetEntries(@NonNull Fingerprint fingerprint) {
+        List<FacetEntry> entries = new ArrayList<>();
+        for (FingerprintFacet facet : fingerprint.getPersistedFacets()) {
+            entries.add(toFacetEntry(facet));
+        }
+        return entries;
+    }
+
+    /**
+     * Converts a facet to the name and the JSON entry stored in the database.
+     */
+    static @NonNull FacetEntry toFacetEntry(@NonNull FingerprintFacet facet) {
+        JSONObject facetJSON = new JSONObject(XStreamHandler.getXStream().toXML(facet));
+        String facetName = facetJSON.keys().next();
+        return new FacetEntry(
+                facetName, facetJSON.getJSONObject(facetName).toString(), facet.isFingerprintDeletionBlocked());
+    }
+
+    /**
+     * A facet as stored in the database.
+     */
+    static final class FacetEntry {
+        final String name;
+        final String entry;
+        final boolean deletionBlocked;
+
+        FacetEntry(@NonNull String name, @NonNull String entry, boolean deletionBlocked) {
+            this.name = name;
+            this.entry = entry;
+            this.deletionBlocked = deletionBlocked;
+        }
+    }
+
     /**
      * Store Fingerprint metadata into a Map.
      */
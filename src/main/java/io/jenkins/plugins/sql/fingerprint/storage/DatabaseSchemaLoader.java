@@ -2,51 +2,210 @@ package io.jenkins.plugins.sql.fingerprint.storage;
 
 import static hudson.init.InitMilestone.SYSTEM_CONFIG_ADAPTED;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.init.Initializer;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.sql.DataSource;
-import jenkins.fingerprints.FingerprintStorage;
 import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.FlywayException;
 import org.jenkinsci.plugins.database.Database;
-import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
+/**
+ * Migrates the schema of the databases holding fingerprints.
+ * <p>
+ * Migrations start asynchronously during startup, one thread per database, so that Jenkins does not wait for them.
+ * Fingerprint operations wait up to {@link #SCHEMA_READY_TIMEOUT_SECONDS} for the migration of their database
+ * before failing as if the database was unavailable. When the schema history already records the
+ * {@link SqlDialect#getSchemaVersion() version bundled} with the plugin, Flyway is skipped entirely.
+ */
 @Restricted(NoExternalUse.class)
 public class DatabaseSchemaLoader {
 
     private static final Logger LOGGER = Logger.getLogger(DatabaseSchemaLoader.class.getName());
 
-    static boolean MIGRATED;
+    static final String SCHEMA_HISTORY_TABLE = "fingerprint_flyway_schema_history";
+    static final long SCHEMA_READY_TIMEOUT_SECONDS = 10;
 
+    /**
+     * Migration of each database, by identity of the configured {@link Database}.
+     */
+    private static final Map<Database, Migration> MIGRATIONS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), DatabaseSchemaLoader.class.getSimpleName()));
+
+    /**
+     * A migration started for one database, retried once {@link CircuitBreaker#DEFAULT_OPEN_SECONDS} passed after a
+     * failure.
+     */
+    private static final class Migration {
+        final CompletableFuture<Void> future;
+        final long startedAt = System.nanoTime();
+
+        Migration(CompletableFuture<Void> future) {
+            this.future = future;
+        }
+
+        boolean canRetry() {
+            return future.isCompletedExceptionally()
+                    && System.nanoTime() - startedAt > TimeUnit.SECONDS.toNanos(CircuitBreaker.DEFAULT_OPEN_SECONDS);
+        }
+    }
+
+    /**
+     * Starts migrating every database holding fingerprints in the background.
+     */
     @Initializer(after = SYSTEM_CONFIG_ADAPTED)
+    public static void startMigration() {
+        SqlFingerprintStorage configuration = SqlFingerprintStorage.configured();
+        if (configuration != null) {
+            for (SqlFingerprintStorage.ConnectionSupplier supplier : configuration.getConnectionSuppliers()) {
+                Database database = supplier.database();
+                if (database != null) {
+                    migration(database);
+                }
+            }
+        }
+    }
+
+    /**
+     * Migrates every database holding fingerprints in parallel and waits for the migrations to complete.
+     */
     public static void migrateSchema() {
-        FingerprintStorage configuration = FingerprintStorage.get();
-        if (configuration instanceof SqlFingerprintStorage) {
+        SqlFingerprintStorage configuration = SqlFingerprintStorage.configured();
+        if (configuration != null) {
             try {
-                SqlFingerprintStorage storage = (SqlFingerprintStorage) configuration;
-                DataSource dataSource =
-                        storage.getConnectionSupplier().database().getDataSource();
-                Database database = GlobalDatabaseConfiguration.get().getDatabase();
-                assert database != null;
-                Flyway flyway = Flyway.configure(DatabaseSchemaLoader.class.getClassLoader())
-                        .baselineOnMigrate(true)
-                        .table("fingerprint_flyway_schema_history")
-                        .dataSource(dataSource)
-                        .locations("db/migration/"
-                                + database.getDescriptor().getDisplayName().toLowerCase())
-                        .failOnMissingLocations(true)
-                        .load();
-                flyway.migrate();
-                MIGRATED = true;
-            } catch (Exception e) {
-                // TODO add admin monitor
-                LOGGER.log(
-                        Level.SEVERE,
-                        "Error migrating database, correct this error before using the fingerprint plugin",
-                        e);
+                List<CompletableFuture<Void>> futures = new ArrayList<>();
+                for (SqlFingerprintStorage.ConnectionSupplier supplier : configuration.getConnectionSuppliers()) {
+                    Database database = supplier.database();
+                    assert database != null;
+                    futures.add(migration(database));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // Already logged by the migration
+            }
+        }
+    }
+
+    /**
+     * Returns the migration of the given database, starting it unless it is running or completed.
+     */
+    private static CompletableFuture<Void> migration(@NonNull Database database) {
+        synchronized (MIGRATIONS) {
+            Migration migration = MIGRATIONS.get(database);
+            if (migration == null || migration.canRetry()) {
+                migration = new Migration(CompletableFuture.runAsync(
+                        () -> {
+                            try {
+                                migrateSchema(database);
+                            } catch (SQLException | RuntimeException e) {
+                                // TODO add admin monitor
+                                LOGGER.log(
+                                        Level.SEVERE,
+                                        "Error migrating database, correct this error before using the fingerprint plugin",
+                                        e);
+                                throw new CompletionException(e);
+                            }
+                        },
+                        EXECUTOR));
+                MIGRATIONS.put(database, migration);
+            }
+            return migration.future;
+        }
+    }
+
+    /**
+     * Waits for the schema of the given database to be migrated, starting the migration if needed.
+     * @throws SQLException if the migration failed, or
+     * {@link SqlFingerprintStorage.ConnectionSupplier.UnavailableException} if it is still running.
+     */
+    static void awaitSchema(@NonNull Database database) throws SQLException {
+        CompletableFuture<Void> future = migration(database);
+        if (future.isDone() && !future.isCompletedExceptionally()) {
+            return;
+        }
+        try {
+            future.get(SCHEMA_READY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new SqlFingerprintStorage.ConnectionSupplier.UnavailableException(
+                    "Migration of the database schema still running", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqlFingerprintStorage.ConnectionSupplier.UnavailableException(
+                    "Interrupted while waiting for the migration of the database schema", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException
+                    ? e.getCause().getCause()
+                    : e.getCause();
+            throw new SQLException("Migration of the database schema failed", cause);
+        }
+    }
+
+    /**
+     * Migrates the schema of the given database, either the global database or one of the shards.
+     */
+    static void migrateSchema(@NonNull Database database) throws SQLException {
+        SqlDialect dialect = SqlDialect.forDatabase(database);
+        DataSource dataSource = database.getDataSource();
+        String schemaVersion = dialect.getSchemaVersion();
+        if (schemaVersion != null && schemaVersion.equals(getRecordedSchemaVersion(dialect, dataSource))) {
+            LOGGER.log(Level.FINE, "Schema of the {0} database is up to date", dialect.getName());
+            return;
+        }
+        try {
+            Flyway flyway = Flyway.configure(dialect.getClass().getClassLoader())
+                    .baselineOnMigrate(true)
+                    .table(SCHEMA_HISTORY_TABLE)
+                    .dataSource(dataSource)
+                    .locations(dialect.getMigrationLocation())
+                    .failOnMissingLocations(true)
+                    .load();
+            flyway.migrate();
+        } catch (FlywayException e) {
+            throw new SQLException("Error migrating " + dialect.getName() + " database", e);
+        }
+    }
+
+    /**
+     * Returns the version of the last migration recorded in the schema history, or {@code null} if the history
+     * cannot be read or the last migration failed.
+     */
+    static @CheckForNull String getRecordedSchemaVersion(@NonNull SqlDialect dialect, @NonNull DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+                PreparedStatement preparedStatement =
+                        connection.prepareStatement(dialect.getQuery(Queries.SELECT_SCHEMA_VERSION));
+                ResultSet resultSet = preparedStatement.executeQuery()) {
+            if (resultSet.next() && resultSet.getBoolean(2)) {
+                return resultSet.getString(1);
             }
+        } catch (SQLException e) {
+            LOGGER.log(Level.FINE, "Unable to read the schema history, running Flyway", e);
         }
+        return null;
     }
 }
@@ -0,0 +1,36 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Writes every fingerprint of this instance to the standard output, see {@link FingerprintArchive}.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ExportFingerprintsCommand extends CLICommand {
+
+    @Override
+    public String getShortDescription() {
+        return "Exports the fingerprints stored by the SQL fingerprint storage as gzip compressed NDJSON.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        FingerprintStorage fingerprintStorage = FingerprintStorage.get();
+        if (!(fingerprintStorage instanceof SqlFingerprintStorage)) {
+            stderr.println("The SQL fingerprint storage is not configured");
+            return 1;
+        }
+        FingerprintArchive.Statistics statistics = ((SqlFingerprintStorage) fingerprintStorage).export(stdout);
+        stdout.flush();
+        stderr.println("Exported " + statistics);
+        return 0;
+    }
+}
@@ -0,0 +1,448 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Fingerprint;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Exports the fingerprints of this instance to a gzip compressed NDJSON file, and imports them back into any
+ * database supported by {@link SqlFingerprintStorage}.
+ * <p>
+ * The first line is a header, each following line is a record: a fingerprint ({@code "t":"f"}), the builds of a job
+ * using it ({@code "t":"u"}, as a {@link Fingerprint.RangeSet}) or one of its facets ({@code "t":"x"}). Fingerprints
+ * are exported by pages of {@link #PAGE_SIZE}, each page followed by the usages and facets of its fingerprints read
+ * with streaming cursors, so that memory stays flat however many usages a fingerprint has. The file does not carry
+ * the instance ID: imported fingerprints are owned by the importing instance.
+ */
+@Restricted(NoExternalUse.class)
+public class FingerprintArchive {
+
+    private static final Logger LOGGER = Logger.getLogger(FingerprintArchive.class.getName());
+
+    static final String FORMAT = "sql-fingerprint-storage";
+    static final int VERSION = 1;
+    static final int PAGE_SIZE = 1000;
+    static final int FETCH_SIZE = 1000;
+    static final int BATCH_SIZE = 1000;
+
+    static final String TYPE = "t";
+    static final String FINGERPRINT = "f";
+    static final String USAGE = "u";
+    static final String FACET = "x";
+
+    private final SqlFingerprintStorage storage;
+
+    FingerprintArchive(@NonNull SqlFingerprintStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Number of fingerprints, usage rows and facets exported or imported.
+     */
+    public static final class Statistics {
+        long fingerprints;
+        long usages;
+        long facets;
+
+        public long getFingerprints() {
+            return fingerprints;
+        }
+
+        public long getUsages() {
+            return usages;
+        }
+
+        public long getFacets() {
+            return facets;
+        }
+
+        @Override
+        public String toString() {
+            return fingerprints + " fingerprints, " + usages + " usages, " + facets + " facets";
+        }
+    }
+
+    /**
+     * Writes every fingerprint of this instance to the given stream, which is not closed.
+     */
+    @NonNull
+    Statistics export(@NonNull OutputStream outputStream) throws IOException {
+        Statistics statistics = new Statistics();
+        GZIPOutputStream gzip = new GZIPOutputStream(outputStream, 65536);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(gzip, StandardCharsets.UTF_8), 65536);
+
+        JSONObject header = new JSONObject();
+        header.put("format", FORMAT);
+        header.put("version", VERSION);
+        header.put("exported", System.currentTimeMillis());
+        writeLine(writer, header);
+
+        for (SqlFingerprintStorage.ConnectionSupplier supplier : storage.getConnectionSuppliers()) {
+            try (Connection connection = supplier.connection()) {
+                connection.setAutoCommit(false);
+                try {
+                    exportShard(supplier, connection, writer, statistics);
+                } finally {
+                    connection.rollback();
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "SQL Storage failed in exporting fingerprints", e);
+                throw new IOException(e);
+            }
+        }
+
+        writer.flush();
+        gzip.finish();
+        return statistics;
+    }
+
+    private void exportShard(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull Connection connection,
+            @NonNull Writer writer,
+            @NonNull Statistics statistics)
+            throws SQLException, IOException {
+        String instanceId = storage.getInstanceId();
+        SqlDialect dialect = supplier.getDialect();
+        String lastId = "";
+        while (true) {
+            List<String> ids = new ArrayList<>(PAGE_SIZE);
+            try (PreparedStatement preparedStatement =
+                    storage.prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINTS_EXPORT_PAGE)) {
+                preparedStatement.setString(1, instanceId);
+                preparedStatement.setString(2, lastId);
+                preparedStatement.setInt(3, PAGE_SIZE);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String id = resultSet.getString(ColumnName.FINGERPRINT_ID);
+                        JSONObject record = new JSONObject();
+                        record.put(TYPE, FINGERPRINT);
+                        record.put("id", id);
+                        record.put("timestamp", resultSet.getTimestamp(ColumnName.TIMESTAMP).getTime());
+                        record.put("fileName", resultSet.getString(ColumnName.FILENAME));
+                        int originalBuildNumber = resultSet.getInt(ColumnName.ORIGINAL_JOB_BUILD_NUMBER);
+                        if (!resultSet.wasNull()) {
+                            record.put("originalJob", resultSet.getString(ColumnName.ORIGINAL_JOB_NAME));
+                            record.put("originalBuild", originalBuildNumber);
+                        }
+                        writeLine(writer, record);
+                        ids.add(id);
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            statistics.fingerprints += ids.size();
+
+            String firstId = ids.get(0);
+            String lastIdOfPage = ids.get(ids.size() - 1);
+            exportUsages(supplier, dialect, connection, writer, statistics, firstId, lastIdOfPage);
+            exportFacets(supplier, dialect, connection, writer, statistics, firstId, lastIdOfPage);
+
+            if (ids.size() < PAGE_SIZE) {
+                return;
+            }
+            lastId = lastIdOfPage;
+        }
+    }
+
+    /**
+     * Writes the usages of the fingerprints between the given ids, grouping the builds of each job in a range set.
+     */
+    private void exportUsages(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull SqlDialect dialect,
+            @NonNull Connection connection,
+            @NonNull Writer writer,
+            @NonNull Statistics statistics,
+            @NonNull String firstId,
+            @NonNull String lastId)
+            throws SQLException, IOException {
+        try (PreparedStatement preparedStatement = storage.prepareStatement(
+                supplier, connection, Queries.SELECT_FINGERPRINT_JOB_BUILD_RELATIONS_EXPORT)) {
+            dialect.setFetchSize(preparedStatement, FETCH_SIZE);
+            preparedStatement.setString(1, storage.getInstanceId());
+            preparedStatement.setString(2, firstId);
+            preparedStatement.setString(3, lastId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                String id = null;
+                String job = null;
+                Fingerprint.RangeSet builds = null;
+                while (resultSet.next()) {
+                    String rowId = resultSet.getString(ColumnName.FINGERPRINT_ID);
+                    String rowJob = resultSet.getString(ColumnName.JOB);
+                    if (!rowId.equals(id) || !rowJob.equals(job)) {
+                        writeUsage(writer, id, job, builds);
+                        id = rowId;
+                        job = rowJob;
+                        builds = new Fingerprint.RangeSet();
+                    }
+                    builds.add(resultSet.getInt(ColumnName.BUILD_NUMBER));
+                    statistics.usages++;
+                }
+                writeUsage(writer, id, job, builds);
+            }
+        }
+    }
+
+    private static void writeUsage(
+            @NonNull Writer writer,
+            @CheckForNull String id,
+            @CheckForNull String job,
+            @CheckForNull Fingerprint.RangeSet builds)
+            throws IOException {
+        if (id == null || builds == null) {
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put(TYPE, USAGE);
+        record.put("id", id);
+        record.put("job", job);
+        record.put("builds", builds.toString());
+        writeLine(writer, record);
+    }
+
+    private void exportFacets(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull SqlDialect dialect,
+            @NonNull Connection connection,
+            @NonNull Writer writer,
+            @NonNull Statistics statistics,
+            @NonNull String firstId,
+            @NonNull String lastId)
+            throws SQLException, IOException {
+        try (PreparedStatement preparedStatement = storage.prepareStatement(
+                supplier, connection, Queries.SELECT_FINGERPRINT_FACET_RELATIONS_EXPORT)) {
+            dialect.setFetchSize(preparedStatement, FETCH_SIZE);
+            preparedStatement.setString(1, storage.getInstanceId());
+            preparedStatement.setString(2, firstId);
+            preparedStatement.setString(3, lastId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    JSONObject record = new JSONObject();
+                    record.put(TYPE, FACET);
+                    record.put("id", resultSet.getString(ColumnName.FINGERPRINT_ID));
+                    record.put("name", resultSet.getString(ColumnName.FACET_NAME));
+                    record.put("entry", new JSONObject(resultSet.getString(ColumnName.FACET_ENTRY)));
+                    record.put("deletionBlocked", resultSet.getBoolean(ColumnName.DELETION_BLOCKED));
+                    writeLine(writer, record);
+                    statistics.facets++;
+                }
+            }
+        }
+    }
+
+    private static void writeLine(@NonNull Writer writer, @NonNull JSONObject record) throws IOException {
+        writer.write(record.toString());
+        writer.write('\n');
+    }
+
+    /**
+     * Reads fingerprints written by {@link #export(OutputStream)} from the given stream, which is not closed, and
+     * stores them as fingerprints of this instance. Fingerprints which already exist are replaced.
+     */
+    @NonNull
+    Statistics importFrom(@NonNull InputStream inputStream) throws IOException {
+        Statistics statistics = new Statistics();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new GZIPInputStream(inputStream, 65536), StandardCharsets.UTF_8), 65536);
+
+        String line = reader.readLine();
+        if (line == null) {
+            throw new IOException("Empty fingerprint archive");
+        }
+        try {
+            JSONObject header = new JSONObject(line);
+            if (!FORMAT.equals(header.optString("format")) || header.optInt("version") != VERSION) {
+                throw new IOException("Unsupported fingerprint archive: " + line);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Unsupported fingerprint archive", e);
+        }
+
+        Map<SqlFingerprintStorage.ConnectionSupplier, Batch> batches = new HashMap<>();
+        try {
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    JSONObject record = new JSONObject(line);
+                    String id = record.getString("id");
+                    SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier(id);
+                    Batch batch = batches.get(supplier);
+                    if (batch == null) {
+                        batch = new Batch(supplier);
+                        batches.put(supplier, batch);
+                    }
+                    batch.add(record, statistics);
+                } catch (JSONException | IllegalArgumentException e) {
+                    throw new IOException("Invalid record at line " + lineNumber, e);
+                }
+            }
+            for (Batch batch : batches.values()) {
+                batch.flush();
+            }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "SQL Storage failed in importing fingerprints", e);
+            throw new IOException(e);
+        } finally {
+            for (Batch batch : batches.values()) {
+                batch.close();
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Batched inserts into one database, committed every {@link #BATCH_SIZE} rows. Statements are executed in the
+     * order of the foreign keys: a replaced fingerprint is deleted before being inserted, and inserted before its
+     * usages and facets.
+     */
+    private final class Batch implements AutoCloseable {
+
+        private final SqlDialect dialect;
+        private final Connection connection;
+        private final PreparedStatement deleteFingerprint;
+        private final PreparedStatement insertFingerprint;
+        private final PreparedStatement insertUsage;
+        private final PreparedStatement insertFacet;
+        private final PreparedStatement insertChange;
+        private final String instanceId = storage.getInstanceId();
+        private int pending;
+
+        Batch(@NonNull SqlFingerprintStorage.ConnectionSupplier supplier) throws SQLException {
+            dialect = supplier.getDialect();
+            connection = supplier.connection();
+            try {
+                connection.setAutoCommit(false);
+                deleteFingerprint = storage.prepareStatement(supplier, connection, Queries.DELETE_FINGERPRINT);
+                insertFingerprint = storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT);
+                insertUsage = storage.prepareStatement(
+                        supplier, connection, Queries.INSERT_FINGERPRINT_JOB_BUILD_RELATION);
+                insertFacet =
+                        storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_FACET_RELATION);
+                insertChange = storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_CHANGE);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        void add(@NonNull JSONObject record, @NonNull Statistics statistics) throws SQLException {
+            String id = record.getString("id");
+            switch (record.getString(TYPE)) {
+                case FINGERPRINT:
+                    deleteFingerprint.setString(1, id);
+                    deleteFingerprint.setString(2, instanceId);
+                    deleteFingerprint.addBatch();
+
+                    insertFingerprint.setString(1, id);
+                    insertFingerprint.setString(2, instanceId);
+                    insertFingerprint.setTimestamp(3, new Timestamp(record.getLong("timestamp")));
+                    insertFingerprint.setString(4, record.getString("fileName"));
+                    if (record.has("originalBuild")) {
+                        insertFingerprint.setString(5, record.getString("originalJob"));
+                        insertFingerprint.setInt(6, record.getInt("originalBuild"));
+                    } else {
+                        insertFingerprint.setNull(5, Types.NULL);
+                        insertFingerprint.setNull(6, Types.NULL);
+                    }
+                    insertFingerprint.setNull(7, Types.NULL);
+                    insertFingerprint.addBatch();
+
+                    insertChange.setString(1, id);
+                    insertChange.setString(2, instanceId);
+                    insertChange.setString(3, FingerprintChange.Type.SAVE.name());
+                    insertChange.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                    insertChange.addBatch();
+
+                    statistics.fingerprints++;
+                    pending += 3;
+                    break;
+                case USAGE:
+                    String job = record.getString("job");
+                    Fingerprint.RangeSet builds = Fingerprint.RangeSet.fromString(record.getString("builds"), false);
+                    for (int buildNumber : builds.listNumbers()) {
+                        insertUsage.setString(1, id);
+                        insertUsage.setString(2, instanceId);
+                        insertUsage.setString(3, job);
+                        insertUsage.setInt(4, buildNumber);
+                        insertUsage.addBatch();
+                        statistics.usages++;
+                        if (++pending >= BATCH_SIZE) {
+                            flush();
+                        }
+                    }
+                    break;
+                case FACET:
+                    insertFacet.setString(1, id);
+                    insertFacet.setString(2, instanceId);
+                    insertFacet.setString(3, record.getString("name"));
+                    dialect.setJson(insertFacet, 4, record.getJSONObject("entry").toString());
+                    insertFacet.setBoolean(5, record.getBoolean("deletionBlocked"));
+                    insertFacet.addBatch();
+                    statistics.facets++;
+                    pending++;
+                    break;
+                default:
+                    throw new SQLException("Unknown record type: " + record.getString(TYPE));
+            }
+            if (pending >= BATCH_SIZE) {
+                flush();
+            }
+        }
+
+        void flush() throws SQLException {
+            if (pending == 0) {
+                return;
+            }
+            deleteFingerprint.executeBatch();
+            insertFingerprint.executeBatch();
+            insertChange.executeBatch();
+            insertUsage.executeBatch();
+            insertFacet.executeBatch();
+            connection.commit();
+            pending = 0;
+        }
+
+        @Override
+        public void close() {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Failed closing connection", e);
+            }
+        }
+    }
+}
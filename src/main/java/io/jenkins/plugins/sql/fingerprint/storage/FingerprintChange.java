@@ -0,0 +1,53 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Date;
+
+/**
+ * A save or deletion of a fingerprint recorded in the change log, see
+ * {@link SqlFingerprintStorage#getChanges(int, long, int)}.
+ */
+public final class FingerprintChange {
+
+    public enum Type {
+        SAVE,
+        DELETE
+    }
+
+    private final long sequence;
+    private final String fingerprintId;
+    private final Type type;
+    private final long timestamp;
+
+    FingerprintChange(long sequence, @NonNull String fingerprintId, @NonNull Type type, long timestamp) {
+        this.sequence = sequence;
+        this.fingerprintId = fingerprintId;
+        this.type = type;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the position of the change in the change log of its shard, to be passed as watermark to fetch the
+     * following changes.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public @NonNull String getFingerprintId() {
+        return fingerprintId;
+    }
+
+    public @NonNull Type getType() {
+        return type;
+    }
+
+    public @NonNull Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintChange[" + sequence + ", " + type + " " + fingerprintId + "]";
+    }
+}
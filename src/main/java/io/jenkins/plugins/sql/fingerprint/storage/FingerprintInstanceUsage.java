@@ -0,0 +1,92 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Date;
+
+/**
+ * Summary of a fingerprint as stored by one of the instances sharing the database, see
+ * {@link SqlFingerprintStorage#lookupAcrossInstances(String)}.
+ */
+public final class FingerprintInstanceUsage {
+
+    private final String instanceId;
+    private final boolean local;
+    private final long timestamp;
+    private final String fileName;
+    private final String originalJobName;
+    private final Integer originalBuildNumber;
+    private final int jobCount;
+    private final int buildCount;
+
+    FingerprintInstanceUsage(
+            @NonNull String instanceId,
+            boolean local,
+            long timestamp,
+            @NonNull String fileName,
+            @CheckForNull String originalJobName,
+            @CheckForNull Integer originalBuildNumber,
+            int jobCount,
+            int buildCount) {
+        this.instanceId = instanceId;
+        this.local = local;
+        this.timestamp = timestamp;
+        this.fileName = fileName;
+        this.originalJobName = originalJobName;
+        this.originalBuildNumber = originalBuildNumber;
+        this.jobCount = jobCount;
+        this.buildCount = buildCount;
+    }
+
+    /**
+     * Returns the digest of the identity of the instance storing the fingerprint.
+     */
+    public @NonNull String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Returns whether the fingerprint is stored by this instance.
+     */
+    public boolean isLocal() {
+        return local;
+    }
+
+    public @NonNull Date getTimestamp() {
+        return new Date(timestamp);
+    }
+
+    public @NonNull String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the name of the job which produced the file on that instance, or {@code null} if it came from outside.
+     */
+    public @CheckForNull String getOriginalJobName() {
+        return originalJobName;
+    }
+
+    public @CheckForNull Integer getOriginalBuildNumber() {
+        return originalBuildNumber;
+    }
+
+    /**
+     * Returns the number of jobs of that instance which used the file.
+     */
+    public int getJobCount() {
+        return jobCount;
+    }
+
+    /**
+     * Returns the number of builds of that instance which used the file.
+     */
+    public int getBuildCount() {
+        return buildCount;
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintInstanceUsage[" + instanceId + ", " + fileName + ", " + buildCount + " builds]";
+    }
+}
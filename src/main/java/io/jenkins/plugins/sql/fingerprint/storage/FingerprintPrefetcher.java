@@ -0,0 +1,95 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Run;
+import hudson.tasks.Fingerprinter;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.model.TransientActionFactory;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Prefetches the fingerprints of a completed build in the background when the build is first accessed, so that its
+ * fingerprint page and the plugins inspecting its fingerprints are served from the {@link PrefetchBuffer}, see
+ * {@link SqlFingerprintStorage#prefetch(Run)}.
+ * <p>
+ * Jenkins asks this factory for the actions of a build whenever the build is rendered, it contributes none.
+ * Prefetches run one at a time, those requested while {@link #MAX_QUEUED} are waiting are dropped.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+@SuppressWarnings("rawtypes")
+public class FingerprintPrefetcher extends TransientActionFactory<Run> {
+
+    private static final Logger LOGGER = Logger.getLogger(FingerprintPrefetcher.class.getName());
+
+    static final int MAX_QUEUED = 16;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            1,
+            1,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED),
+            new NamingThreadFactory(new DaemonThreadFactory(), FingerprintPrefetcher.class.getSimpleName()),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    public FingerprintPrefetcher() {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public Class<Run> type() {
+        return Run.class;
+    }
+
+    @Override
+    public Class<? extends Action> actionType() {
+        // No action is contributed, the factory is only consulted when every action of a build is listed
+        return Prefetched.class;
+    }
+
+    @NonNull
+    @Override
+    public Collection<? extends Action> createFor(@NonNull Run target) {
+        Run<?, ?> run = target;
+        // Fingerprints of a running build are still being recorded. In shadow mode loads are served by the file
+        // storage, prefetching would only add load to the database.
+        FingerprintStorage storage = FingerprintStorage.get();
+        if (!(storage instanceof SqlFingerprintStorage)
+                || run.isBuilding()
+                || run.getAction(Fingerprinter.FingerprintAction.class) == null) {
+            return Collections.emptyList();
+        }
+        SqlFingerprintStorage sql = (SqlFingerprintStorage) storage;
+        String job = run.getParent().getFullName();
+        int build = run.getNumber();
+        if (!sql.getPrefetchBuffer().isPrefetched(job, build)) {
+            executor.execute(() -> {
+                try {
+                    sql.prefetch(job, build);
+                } catch (IOException e) {
+                    LOGGER.log(Level.FINE, "Failed prefetching the fingerprints of " + job + " #" + build, e);
+                }
+            });
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Type of the actions of this factory, none is ever created.
+     */
+    private abstract static class Prefetched implements Action {}
+}
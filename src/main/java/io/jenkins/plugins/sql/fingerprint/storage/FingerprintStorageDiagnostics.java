@@ -0,0 +1,82 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.ManagementLink;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.verb.POST;
+
+/**
+ * Page of the slow statements recorded by the {@link SqlFingerprintStorage}, of the progress of the
+ * {@link MaintenanceWork}, and of the latencies and comparisons recorded by the {@link ShadowFingerprintStorage},
+ * shown while fingerprints are stored in SQL.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class FingerprintStorageDiagnostics extends ManagementLink {
+
+    @Override
+    public @CheckForNull String getIconFileName() {
+        return getSqlStorage() == null ? null : "symbol-details";
+    }
+
+    @Override
+    public @NonNull String getDisplayName() {
+        return Messages.FingerprintStorageDiagnostics_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.FingerprintStorageDiagnostics_Description();
+    }
+
+    @Override
+    public @NonNull String getUrlName() {
+        return "sql-fingerprint-storage";
+    }
+
+    @Override
+    public @NonNull Category getCategory() {
+        return Category.STATUS;
+    }
+
+    /**
+     * Returns the SQL storage fingerprints are written to, or {@code null} if fingerprints are not stored in SQL.
+     */
+    public @CheckForNull SqlFingerprintStorage getSqlStorage() {
+        return SqlFingerprintStorage.configured();
+    }
+
+    /**
+     * Returns the configured shadow storage, or {@code null} if the file storage is not shadowed.
+     */
+    public @CheckForNull ShadowFingerprintStorage getShadowStorage() {
+        FingerprintStorage storage = FingerprintStorage.get();
+        return storage instanceof ShadowFingerprintStorage ? (ShadowFingerprintStorage) storage : null;
+    }
+
+    public @NonNull MaintenanceWork getMaintenanceWork() {
+        return ExtensionList.lookupSingleton(MaintenanceWork.class);
+    }
+
+    @POST
+    public HttpResponse doReset() {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+        ShadowFingerprintStorage storage = getShadowStorage();
+        if (storage != null) {
+            storage.getStatistics().reset();
+        }
+        SqlFingerprintStorage sqlStorage = getSqlStorage();
+        if (sqlStorage != null) {
+            sqlStorage.getSlowOperationLog().clear();
+        }
+        return HttpResponses.redirectToDot();
+    }
+}
@@ -0,0 +1,85 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.Fingerprint;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Page of the usages of a fingerprint ordered by job and build number, see
+ * {@link SqlFingerprintStorage#getUsages(String, FingerprintUsagePage, int)}.
+ * <p>
+ * A page ends after a given number of usages, so the builds of a job may continue on the following page.
+ */
+public final class FingerprintUsagePage {
+
+    private final String fingerprintId;
+    private final Map<String, Fingerprint.RangeSet> usages = new LinkedHashMap<>();
+    private final int limit;
+    private int size;
+    private String lastJob;
+    private int lastBuild;
+
+    /**
+     * Creates an empty page following the given one, or starting with the first usage.
+     */
+    FingerprintUsagePage(@NonNull String fingerprintId, @CheckForNull FingerprintUsagePage previous, int limit) {
+        this.fingerprintId = fingerprintId;
+        this.limit = limit;
+        // Job names are never empty, so every usage follows the first position
+        this.lastJob = previous == null ? "" : previous.lastJob;
+        this.lastBuild = previous == null ? Integer.MIN_VALUE : previous.lastBuild;
+    }
+
+    void add(@NonNull String job, int build) {
+        usages.computeIfAbsent(job, k -> new Fingerprint.RangeSet()).add(build);
+        lastJob = job;
+        lastBuild = build;
+        size++;
+    }
+
+    public @NonNull String getFingerprintId() {
+        return fingerprintId;
+    }
+
+    /**
+     * Returns the builds using the fingerprint, by job in the order of the database.
+     */
+    public @NonNull Map<String, Fingerprint.RangeSet> getUsages() {
+        return Collections.unmodifiableMap(usages);
+    }
+
+    /**
+     * Returns the number of usages of the page, a job used by two builds counting twice.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether no usage follows this page.
+     */
+    public boolean isLast() {
+        return size < limit;
+    }
+
+    /**
+     * Returns the job of the last usage read so far, the following page starts after it.
+     */
+    @NonNull
+    String getLastJob() {
+        return lastJob;
+    }
+
+    int getLastBuild() {
+        return lastBuild;
+    }
+
+    @Override
+    public String toString() {
+        return "FingerprintUsagePage[" + fingerprintId + ", " + size + " usages, after " + lastJob + " #" + lastBuild
+                + "]";
+    }
+}
@@ -0,0 +1,36 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.model.Jenkins;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Reads fingerprints written by {@link ExportFingerprintsCommand} from the standard input and stores them as
+ * fingerprints of this instance, see {@link FingerprintArchive}.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ImportFingerprintsCommand extends CLICommand {
+
+    @Override
+    public String getShortDescription() {
+        return "Imports fingerprints exported by export-fingerprints into the SQL fingerprint storage.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        FingerprintStorage fingerprintStorage = FingerprintStorage.get();
+        if (!(fingerprintStorage instanceof SqlFingerprintStorage)) {
+            stderr.println("The SQL fingerprint storage is not configured");
+            return 1;
+        }
+        FingerprintArchive.Statistics statistics = ((SqlFingerprintStorage) fingerprintStorage).importFrom(stdin);
+        stdout.println("Imported " + statistics);
+        return 0;
+    }
+}
@@ -0,0 +1,64 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Date;
+
+/**
+ * Number of fingerprints used by the builds of a job, see {@link SqlFingerprintStorage#getJobSummaries()}.
+ */
+public final class JobUsageSummary {
+
+    private final String job;
+    private final long fingerprintCount;
+    private final long usageCount;
+    private final long updated;
+
+    JobUsageSummary(@NonNull String job, long fingerprintCount, long usageCount, long updated) {
+        this.job = job;
+        this.fingerprintCount = fingerprintCount;
+        this.usageCount = usageCount;
+        this.updated = updated;
+    }
+
+    /**
+     * Returns the full name of the job.
+     */
+    public @NonNull String getJob() {
+        return job;
+    }
+
+    /**
+     * Returns the number of distinct fingerprints used by at least one build of the job.
+     */
+    public long getFingerprintCount() {
+        return fingerprintCount;
+    }
+
+    /**
+     * Returns the number of usages of fingerprints by builds of the job, a fingerprint used by two builds counting
+     * twice.
+     */
+    public long getUsageCount() {
+        return usageCount;
+    }
+
+    /**
+     * Returns when the counts last changed.
+     */
+    public @NonNull Date getUpdated() {
+        return new Date(updated);
+    }
+
+    JobUsageSummary merge(@NonNull JobUsageSummary other) {
+        return new JobUsageSummary(
+                job,
+                fingerprintCount + other.fingerprintCount,
+                usageCount + other.usageCount,
+                Math.max(updated, other.updated));
+    }
+
+    @Override
+    public String toString() {
+        return "JobUsageSummary[" + job + ", " + fingerprintCount + " fingerprints, " + usageCount + " usages]";
+    }
+}
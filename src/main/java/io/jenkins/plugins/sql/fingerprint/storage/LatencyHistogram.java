@@ -0,0 +1,99 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Lock-free distribution of operation latencies. Latencies are counted in buckets growing by a quarter of a power of
+ * two, so percentiles are accurate to about 20% from a microsecond up to an hour while recording costs a few atomic
+ * increments.
+ */
+@Restricted(NoExternalUse.class)
+class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+    static final int BUCKETS = 32 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos) {
+        long duration = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(duration));
+        totalNanos.add(duration);
+        maxNanos.accumulateAndGet(duration, Math::max);
+    }
+
+    long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    double getMeanMillis() {
+        long count = getCount();
+        return count == 0 ? 0 : toMillis(totalNanos.sum()) / count;
+    }
+
+    double getMaxMillis() {
+        return toMillis(maxNanos.get());
+    }
+
+    /**
+     * Returns the latency under which the given fraction of the operations completed, rounded up to the bound of its
+     * bucket.
+     */
+    double getPercentileMillis(double fraction) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(toMillis(upperBoundNanos(i)), getMaxMillis());
+            }
+        }
+        return getMaxMillis();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    static int bucketOf(long nanos) {
+        long micros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos));
+        int log = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = log < 2 ? 0 : (int) ((micros >>> (log - 2)) & (SUB_BUCKETS - 1));
+        return Math.min(BUCKETS - 1, log * SUB_BUCKETS + sub);
+    }
+
+    static long upperBoundNanos(int bucket) {
+        int log = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        long micros = log < 2 ? 1L << (log + 1) : (SUB_BUCKETS + sub + 1L) << (log - 2);
+        return TimeUnit.MICROSECONDS.toNanos(micros);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
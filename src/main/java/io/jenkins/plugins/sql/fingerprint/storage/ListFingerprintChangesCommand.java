@@ -0,0 +1,74 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import hudson.Extension;
+import hudson.cli.CLICommand;
+import java.util.List;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.model.Jenkins;
+import org.json.JSONObject;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Streams the fingerprint changes following a watermark as one JSON object per line, see
+ * {@link SqlFingerprintStorage#getChanges(int, long, int)}.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class ListFingerprintChangesCommand extends CLICommand {
+
+    static final int PAGE_SIZE = 1000;
+
+    @Option(name = "--shard", usage = "Index of the shard to read the changes from, 0 by default.")
+    public int shard;
+
+    @Option(name = "--after", usage = "Sequence of the last change already consumed, 0 to start from the beginning.")
+    public long after;
+
+    @Option(name = "--limit", usage = "Maximum number of changes to print, all of them by default.")
+    public long limit = Long.MAX_VALUE;
+
+    @Override
+    public String getShortDescription() {
+        return "Lists the fingerprint changes recorded by the SQL fingerprint storage after a watermark.";
+    }
+
+    @Override
+    protected int run() throws Exception {
+        Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+        FingerprintStorage fingerprintStorage = FingerprintStorage.get();
+        if (!(fingerprintStorage instanceof SqlFingerprintStorage)) {
+            stderr.println("The SQL fingerprint storage is not configured");
+            return 1;
+        }
+        SqlFingerprintStorage storage = (SqlFingerprintStorage) fingerprintStorage;
+        if (shard < 0 || shard >= storage.getShardCount()) {
+            stderr.println("Invalid shard " + shard + ", " + storage.getShardCount() + " configured");
+            return 2;
+        }
+
+        long watermark = after;
+        long remaining = limit;
+        while (remaining > 0) {
+            List<FingerprintChange> changes =
+                    storage.getChanges(shard, watermark, (int) Math.min(PAGE_SIZE, remaining));
+            for (FingerprintChange change : changes) {
+                JSONObject json = new JSONObject();
+                json.put("sequence", change.getSequence());
+                json.put("id", change.getFingerprintId());
+                json.put("type", change.getType().name());
+                json.put("timestamp", change.getTimestamp().getTime());
+                stdout.println(json);
+                watermark = change.getSequence();
+            }
+            remaining -= changes.size();
+            if (changes.size() < PAGE_SIZE) {
+                break;
+            }
+        }
+        stdout.flush();
+        return 0;
+    }
+}
@@ -0,0 +1,213 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Periodically compacts the fingerprint tables and refreshes their statistics during the maintenance window of the
+ * {@link SqlFingerprintStorage}, running the {@link SqlDialect#getMaintenanceStatements statements of the dialect}.
+ * <p>
+ * Statements run one at a time, {@link #THROTTLE_SECONDS} apart, and only while the storage runs at most half of
+ * its concurrent operations. A statement still running when the window closes is cancelled. A pass over every
+ * database completes at most once per {@link #PASS_INTERVAL_HOURS}.
+ * Its progress is shown by {@link FingerprintStorageDiagnostics}.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class MaintenanceWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(MaintenanceWork.class.getName());
+
+    static final List<String> TABLES = List.of(
+            "FINGERPRINT",
+            "FINGERPRINT_JOB_BUILD_RELATION",
+            "FINGERPRINT_FACET_RELATION",
+            "FINGERPRINT_CONTENT",
+            "FINGERPRINT_CHANGE_LOG",
+            "FINGERPRINT_JOB_SUMMARY");
+    static final long THROTTLE_SECONDS = 10;
+    static final long PASS_INTERVAL_HOURS = 20;
+    private static final int MAX_REPORT_LINES = 100;
+
+    private final List<String> report = new ArrayList<>();
+    private volatile long lastCompleted;
+
+    public MaintenanceWork() {
+        super("SQL fingerprint database maintenance");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(15);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        SqlFingerprintStorage storage = SqlFingerprintStorage.configured();
+        if (storage == null) {
+            return;
+        }
+        long remaining = remainingMillis(
+                LocalDateTime.now(), storage.getMaintenanceWindowStart(), storage.getMaintenanceWindowHours());
+        if (remaining == 0
+                || System.currentTimeMillis() - lastCompleted < TimeUnit.HOURS.toMillis(PASS_INTERVAL_HOURS)) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remaining);
+        synchronized (this) {
+            report.clear();
+        }
+        for (SqlFingerprintStorage.ConnectionSupplier supplier : storage.getConnectionSuppliers()) {
+            String name = "fingerprint";
+            try {
+                SqlDialect dialect = supplier.getDialect();
+                name = dialect.getName();
+                if (!run(storage, supplier, dialect, listener, deadline)) {
+                    return;
+                }
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed maintaining the fingerprint database", e);
+                report(listener, "Failed maintaining the " + name + " database: " + e.getMessage());
+                return;
+            }
+        }
+        lastCompleted = System.currentTimeMillis();
+        report(listener, "Maintenance completed");
+    }
+
+    /**
+     * Runs the maintenance statements of one database, table by table. Each statement runs on its own connection and
+     * is cancelled once the maintenance window closes.
+     * @return false if the maintenance window closed first.
+     */
+    private boolean run(
+            @NonNull SqlFingerprintStorage storage,
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull SqlDialect dialect,
+            @NonNull TaskListener listener,
+            long deadline)
+            throws SQLException, InterruptedException {
+        for (String table : TABLES) {
+            List<String> statements;
+            // Read right before running, another controller sharing the database may have maintained the table
+            try (Connection connection = supplier.connection()) {
+                statements = dialect.getMaintenanceStatements(connection, table);
+            }
+            for (String statement : statements) {
+                if (!runStatement(storage, supplier, dialect, statement, listener, deadline)) {
+                    return false;
+                }
+                Thread.sleep(TimeUnit.SECONDS.toMillis(THROTTLE_SECONDS));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs one maintenance statement once the database is quiet, cancelling it if the deadline passes first.
+     * @return false if the maintenance window closed first.
+     */
+    boolean runStatement(
+            @NonNull SqlFingerprintStorage storage,
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull SqlDialect dialect,
+            @NonNull String statement,
+            @NonNull TaskListener listener,
+            long deadline)
+            throws SQLException, InterruptedException {
+        if (!awaitQuiet(storage, deadline)) {
+            report(listener, "Maintenance window closed before " + statement);
+            return false;
+        }
+        // Rounded up so that the driver cancels the statement once the window is closed, not before
+        long timeout = TimeUnit.NANOSECONDS.toSeconds(deadline - System.nanoTime() + TimeUnit.SECONDS.toNanos(1) - 1);
+        report(listener, "Running " + statement + " on " + dialect.getName());
+        long start = System.nanoTime();
+        try (Connection connection = supplier.connection()) {
+            connection.setAutoCommit(true);
+            SqlDialect.execute(connection, statement, (int) Math.min(Math.max(timeout, 1), Integer.MAX_VALUE));
+        } catch (SQLException e) {
+            if (System.nanoTime() - deadline < 0) {
+                throw e;
+            }
+            report(listener, "Maintenance window closed during " + statement + ", cancelled");
+            return false;
+        }
+        report(
+                listener,
+                "Completed " + statement + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return true;
+    }
+
+    /**
+     * Waits for the storage to run at most half of its concurrent operations, so that maintenance only adds its
+     * load to a quiet database.
+     * @return false if the deadline was reached first.
+     */
+    private static boolean awaitQuiet(@NonNull SqlFingerprintStorage storage, long deadline)
+            throws InterruptedException {
+        while (System.nanoTime() - deadline < 0) {
+            ConcurrencyLimiter limiter = storage.getConcurrencyLimiter();
+            if (limiter == null || limiter.getInFlight() * 2 <= limiter.getLimit()) {
+                return true;
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+        }
+        return false;
+    }
+
+    /**
+     * Returns the time left in the window starting every day at the given hour, {@code 0} outside of it.
+     */
+    static long remainingMillis(@NonNull LocalDateTime now, int startHour, int hours) {
+        if (hours <= 0) {
+            return 0;
+        }
+        LocalDateTime start = now.toLocalDate().atTime(startHour, 0);
+        if (start.isAfter(now)) {
+            start = start.minusDays(1);
+        }
+        LocalDateTime end = start.plusHours(Math.min(hours, 24));
+        return end.isAfter(now) ? Duration.between(now, end).toMillis() : 0;
+    }
+
+    private synchronized void report(@NonNull TaskListener listener, @NonNull String line) {
+        listener.getLogger().println(line);
+        LOGGER.log(Level.FINE, line);
+        report.add(new Date() + " " + line);
+        if (report.size() > MAX_REPORT_LINES) {
+            report.remove(0);
+        }
+    }
+
+    /**
+     * Returns the progress of the current or last maintenance pass.
+     */
+    public synchronized @NonNull List<String> getReport() {
+        return new ArrayList<>(report);
+    }
+
+    /**
+     * Returns when the last pass over every database completed, or {@code null} if none did since startup.
+     */
+    public @CheckForNull Date getLastCompleted() {
+        long _lastCompleted = lastCompleted;
+        return _lastCompleted == 0 ? null : new Date(_lastCompleted);
+    }
+}
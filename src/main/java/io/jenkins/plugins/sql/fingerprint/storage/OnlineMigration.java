@@ -0,0 +1,267 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * A schema change too slow to run in a Flyway migration at startup, such as an index on a large table or the
+ * backfill of a new table.
+ * <p>
+ * Online migrations run in the background after startup by {@link OnlineMigrationWork}, one batch at a time, and
+ * record their progress in {@code FINGERPRINT_ONLINE_MIGRATION} so that they resume after a restart. Instances
+ * sharing a database advance the progress with a compare-and-set, so each batch is applied once. The storage keeps
+ * using the old path until {@link SqlFingerprintStorage.ConnectionSupplier#isMigrationComplete(String)}.
+ */
+@Restricted(NoExternalUse.class)
+public abstract class OnlineMigration {
+
+    static final String PENDING = "PENDING";
+    static final String COMPLETE = "COMPLETE";
+
+    /**
+     * Index of the usages of a build, looking up the fingerprints used by a build without a full scan.
+     */
+    static final String JOB_BUILD_INDEX = "fingerprint-job-build-relation-build-index";
+
+    static final String CHANGE_LOG_BACKFILL = "fingerprint-change-log-backfill";
+
+    /**
+     * Index of the fingerprints sharing content, required before sharing content so that deleting unused content
+     * does not scan the fingerprints.
+     */
+    static final String CONTENT_INDEX = "fingerprint-content-index";
+
+    /**
+     * Summary of the usages of each job, complete once the usages stored before the summary existed are counted.
+     */
+    static final String JOB_SUMMARY_BACKFILL = "fingerprint-job-summary-backfill";
+
+    static final int BACKFILL_BATCH_SIZE = 1000;
+    static final int JOB_SUMMARY_BATCH_SIZE = 100;
+
+    /**
+     * Online migrations in the order they run, later migrations may rely on earlier ones. Migrations are never
+     * removed from this list nor reordered, their ids are recorded in the database.
+     */
+    static final List<OnlineMigration> ALL = List.of(
+            new CreateIndex(
+                    JOB_BUILD_INDEX,
+                    "FINGERPRINT_JOB_BUILD_RELATION",
+                    "FINGERPRINT_JOB_BUILD_RELATION_BUILD_INDEX",
+                    "INSTANCE_ID, JOB, BUILD_NUMBER"),
+            new ChangeLogBackfill(),
+            new CreateIndex(CONTENT_INDEX, "FINGERPRINT", "FINGERPRINT_CONTENT_INDEX", "CONTENT_ID"),
+            new JobSummaryBackfill());
+
+    private final String id;
+
+    protected OnlineMigration(@NonNull String id) {
+        this.id = id;
+    }
+
+    @NonNull
+    String getId() {
+        return id;
+    }
+
+    /**
+     * Returns whether each batch runs in a transaction together with the update of the progress. Statements which
+     * cannot run in a transaction, like building an index concurrently, run in auto-commit mode.
+     */
+    boolean isTransactional() {
+        return true;
+    }
+
+    /**
+     * Runs one batch of the migration.
+     * @param progress the value returned by the previous batch, empty for the first batch.
+     * @return the progress to resume from, or {@code null} once the migration is complete.
+     */
+    abstract @CheckForNull String step(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull Connection connection,
+            @NonNull String progress)
+            throws SQLException;
+
+    /**
+     * Creates an index without locking the table, see {@link SqlDialect#createIndexOnline}.
+     */
+    static class CreateIndex extends OnlineMigration {
+
+        private final String table;
+        private final String index;
+        private final String columns;
+
+        CreateIndex(@NonNull String id, @NonNull String table, @NonNull String index, @NonNull String columns) {
+            super(id);
+            this.table = table;
+            this.index = index;
+            this.columns = columns;
+        }
+
+        @Override
+        boolean isTransactional() {
+            return false;
+        }
+
+        @Override
+        String step(
+                @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+                @NonNull Connection connection,
+                @NonNull String progress)
+                throws SQLException {
+            supplier.getDialect().createIndexOnline(connection, table, index, columns);
+            return null;
+        }
+    }
+
+    /**
+     * Records a save in the change log for the fingerprints stored before the change log existed, so that
+     * consumers starting from the beginning of the change log see every fingerprint. Progress is the last
+     * fingerprint ID processed.
+     */
+    static class ChangeLogBackfill extends OnlineMigration {
+
+        ChangeLogBackfill() {
+            super(CHANGE_LOG_BACKFILL);
+        }
+
+        @Override
+        String step(
+                @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+                @NonNull Connection connection,
+                @NonNull String progress)
+                throws SQLException {
+            SqlDialect dialect = supplier.getDialect();
+            List<String> ids = new ArrayList<>(BACKFILL_BATCH_SIZE);
+            try (PreparedStatement preparedStatement =
+                    connection.prepareStatement(dialect.getQuery(Queries.SELECT_FINGERPRINT_IDS_ALL_INSTANCES_PAGE))) {
+                preparedStatement.setString(1, progress);
+                preparedStatement.setInt(2, BACKFILL_BATCH_SIZE);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getString(ColumnName.FINGERPRINT_ID));
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return null;
+            }
+
+            String lastId = ids.get(ids.size() - 1);
+            try (PreparedStatement preparedStatement =
+                    connection.prepareStatement(dialect.getQuery(Queries.BACKFILL_FINGERPRINT_CHANGE_LOG))) {
+                preparedStatement.setString(1, ids.get(0));
+                preparedStatement.setString(2, lastId);
+                preparedStatement.executeUpdate();
+            }
+            return ids.size() < BACKFILL_BATCH_SIZE ? null : lastId;
+        }
+    }
+
+    /**
+     * Computes the summary of the usages of every job of every instance, a batch of jobs at a time in the order of
+     * {@link #JOB_BUILD_INDEX}. Progress is the instance ID followed by the last job processed.
+     * <p>
+     * Saves and deletions apply their changes to the summary from the start. Each batch replaces the summaries of its
+     * jobs in the same transaction as it counts their usages, so concurrent changes are neither lost nor counted
+     * twice: those committed before the batch are part of the count, the others are applied to the new summary.
+     */
+    static class JobSummaryBackfill extends OnlineMigration {
+
+        /**
+         * Length of the instance IDs, digests in hexadecimal.
+         */
+        private static final int INSTANCE_ID_LENGTH = 32;
+
+        JobSummaryBackfill() {
+            super(JOB_SUMMARY_BACKFILL);
+        }
+
+        @Override
+        String step(
+                @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+                @NonNull Connection connection,
+                @NonNull String progress)
+                throws SQLException {
+            SqlDialect dialect = supplier.getDialect();
+            String instanceId;
+            String lastJob;
+            if (progress.isEmpty()) {
+                instanceId = nextInstance(dialect, connection, "");
+                if (instanceId == null) {
+                    return null;
+                }
+                lastJob = "";
+            } else {
+                instanceId = progress.substring(0, INSTANCE_ID_LENGTH);
+                lastJob = progress.substring(INSTANCE_ID_LENGTH);
+            }
+
+            List<String> jobs = new ArrayList<>(JOB_SUMMARY_BATCH_SIZE);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    dialect.getQuery(Queries.SELECT_FINGERPRINT_JOB_BUILD_RELATION_JOBS_PAGE))) {
+                preparedStatement.setString(1, instanceId);
+                preparedStatement.setString(2, lastJob);
+                preparedStatement.setInt(3, JOB_SUMMARY_BATCH_SIZE);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        jobs.add(resultSet.getString(ColumnName.JOB));
+                    }
+                }
+            }
+            if (jobs.isEmpty()) {
+                // Continue with the first job of the next instance
+                return nextInstance(dialect, connection, instanceId);
+            }
+
+            String upperJob = jobs.get(jobs.size() - 1);
+            executeRange(
+                    dialect, connection, Queries.DELETE_FINGERPRINT_JOB_SUMMARIES_RANGE, instanceId, lastJob, upperJob);
+            executeRange(
+                    dialect,
+                    connection,
+                    Queries.REBUILD_FINGERPRINT_JOB_SUMMARIES_RANGE,
+                    instanceId,
+                    lastJob,
+                    upperJob);
+            return instanceId + upperJob;
+        }
+
+        private static void executeRange(
+                @NonNull SqlDialect dialect,
+                @NonNull Connection connection,
+                @NonNull String query,
+                @NonNull String instanceId,
+                @NonNull String afterJob,
+                @NonNull String upToJob)
+                throws SQLException {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(dialect.getQuery(query))) {
+                preparedStatement.setString(1, instanceId);
+                preparedStatement.setString(2, afterJob);
+                preparedStatement.setString(3, upToJob);
+                preparedStatement.executeUpdate();
+            }
+        }
+
+        private static @CheckForNull String nextInstance(
+                @NonNull SqlDialect dialect, @NonNull Connection connection, @NonNull String after)
+                throws SQLException {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    dialect.getQuery(Queries.SELECT_NEXT_FINGERPRINT_JOB_BUILD_RELATION_INSTANCE))) {
+                preparedStatement.setString(1, after);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    return resultSet.next() ? resultSet.getString(ColumnName.INSTANCE_ID) : null;
+                }
+            }
+        }
+    }
+}
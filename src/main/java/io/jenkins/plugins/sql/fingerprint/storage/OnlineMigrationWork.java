@@ -0,0 +1,186 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Periodically runs the pending {@link OnlineMigration}s, in batches throttled by {@link #THROTTLE_MILLIS} and for
+ * at most {@link #MAX_RUN_SECONDS} per run.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class OnlineMigrationWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(OnlineMigrationWork.class.getName());
+
+    static final long MAX_RUN_SECONDS = 45;
+    static final long THROTTLE_MILLIS = 50;
+
+    public OnlineMigrationWork() {
+        super("SQL fingerprint online migrations");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(1);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        SqlFingerprintStorage storage = SqlFingerprintStorage.configured();
+        if (storage == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(MAX_RUN_SECONDS);
+        for (SqlFingerprintStorage.ConnectionSupplier supplier : storage.getConnectionSuppliers()) {
+            if (supplier.areMigrationsComplete()) {
+                continue;
+            }
+            try {
+                run(supplier, listener, deadline);
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "Failed running online migrations of the fingerprint database", e);
+                listener.error("Failed running online migrations: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the pending migrations of one database in order, until they are complete or the deadline is reached.
+     */
+    static void run(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier, @NonNull TaskListener listener, long deadline)
+            throws SQLException, InterruptedException {
+        try (Connection connection = supplier.connection()) {
+            SqlDialect dialect = supplier.getDialect();
+            Map<String, String[]> statuses = readStatuses(dialect, connection);
+
+            for (OnlineMigration migration : OnlineMigration.ALL) {
+                String[] status = statuses.get(migration.getId());
+                if (status == null) {
+                    status = new String[] {OnlineMigration.PENDING, ""};
+                    insertStatus(dialect, connection, migration.getId());
+                }
+                String progress = status[1];
+                while (!OnlineMigration.COMPLETE.equals(status[0])) {
+                    String next = step(supplier, connection, migration, progress);
+                    if (next == null) {
+                        status[0] = OnlineMigration.COMPLETE;
+                        listener.getLogger().println("Completed online migration " + migration.getId());
+                        LOGGER.log(Level.INFO, "Completed online migration {0}", migration.getId());
+                        break;
+                    }
+                    if (next.equals(progress)) {
+                        // Another instance advanced the migration concurrently, resume from its progress next time
+                        return;
+                    }
+                    progress = next;
+                    if (System.nanoTime() - deadline > 0) {
+                        listener.getLogger()
+                                .println("Online migration " + migration.getId() + " paused at " + progress);
+                        return;
+                    }
+                    Thread.sleep(THROTTLE_MILLIS);
+                }
+                supplier.migrationCompleted(migration.getId());
+            }
+        }
+    }
+
+    /**
+     * Runs one batch and records the progress, unless another instance recorded progress in the meantime.
+     * @return the new progress, {@code null} if the migration is complete, or the given progress if the batch was
+     * discarded.
+     */
+    private static @CheckForNull String step(
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull Connection connection,
+            @NonNull OnlineMigration migration,
+            @NonNull String progress)
+            throws SQLException {
+        SqlDialect dialect = supplier.getDialect();
+        boolean transactional = migration.isTransactional();
+        connection.setAutoCommit(!transactional);
+        try {
+            String next = migration.step(supplier, connection, progress);
+            boolean updated;
+            try (PreparedStatement preparedStatement =
+                    connection.prepareStatement(dialect.getQuery(Queries.UPDATE_ONLINE_MIGRATION))) {
+                preparedStatement.setString(1, next == null ? OnlineMigration.COMPLETE : OnlineMigration.PENDING);
+                preparedStatement.setString(2, next == null ? progress : next);
+                preparedStatement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                preparedStatement.setString(4, migration.getId());
+                preparedStatement.setString(5, OnlineMigration.PENDING);
+                preparedStatement.setString(6, progress);
+                updated = preparedStatement.executeUpdate() == 1;
+            }
+            if (transactional) {
+                if (updated) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            }
+            return updated || !transactional ? next : progress;
+        } catch (SQLException e) {
+            if (transactional) {
+                connection.rollback();
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Returns the status and progress of every online migration recorded in the database, by migration id.
+     */
+    static Map<String, String[]> readStatuses(@NonNull SqlDialect dialect, @NonNull Connection connection)
+            throws SQLException {
+        Map<String, String[]> statuses = new HashMap<>();
+        try (PreparedStatement preparedStatement =
+                        connection.prepareStatement(dialect.getQuery(Queries.SELECT_ONLINE_MIGRATIONS));
+                ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                statuses.put(resultSet.getString(ColumnName.MIGRATION_ID), new String[] {
+                    resultSet.getString(ColumnName.STATUS), resultSet.getString(ColumnName.PROGRESS)
+                });
+            }
+        }
+        return statuses;
+    }
+
+    private static void insertStatus(@NonNull SqlDialect dialect, @NonNull Connection connection, @NonNull String id)
+            throws SQLException {
+        try (PreparedStatement preparedStatement =
+                connection.prepareStatement(dialect.getQuery(Queries.INSERT_ONLINE_MIGRATION))) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, OnlineMigration.PENDING);
+            preparedStatement.setString(3, "");
+            preparedStatement.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            String sqlState = e.getSQLState();
+            if (sqlState == null || !sqlState.startsWith("23")) {
+                throw e;
+            }
+            // Inserted concurrently by another instance sharing the database
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Short-lived buffer of the fingerprints {@code V} prefetched for a build, see
+ * {@link SqlFingerprintStorage#prefetch(String, int)}. The lookups following the prefetch are served from the
+ * buffer instead of querying the database one fingerprint at a time.
+ * <p>
+ * Saving or deleting a fingerprint drops it from the buffer. A prefetch overlapping a save or deletion is discarded,
+ * so the buffer never holds a fingerprint older than the last change made by this instance.
+ */
+@Restricted(NoExternalUse.class)
+class PrefetchBuffer<V> {
+
+    static final long TTL_SECONDS = 60;
+    static final int MAX_FINGERPRINTS = 10_000;
+
+    private final Map<String, Entry<V>> fingerprints = new ConcurrentHashMap<>();
+    private final Map<String, Long> builds = new ConcurrentHashMap<>();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private static final class Entry<V> {
+        final V fingerprint;
+        final long expiresAt;
+
+        Entry(V fingerprint, long expiresAt) {
+            this.fingerprint = fingerprint;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Returns whether the fingerprints of the build are already in the buffer.
+     */
+    boolean isPrefetched(@NonNull String job, int build) {
+        Long expiresAt = builds.get(key(job, build));
+        return expiresAt != null && System.nanoTime() - expiresAt < 0;
+    }
+
+    /**
+     * Returns a token to pass to {@link #put} once the fingerprints of a build are read.
+     */
+    long begin() {
+        return invalidations.get();
+    }
+
+    /**
+     * Buffers the fingerprints read for the build, unless a fingerprint was saved or deleted since {@link #begin()}.
+     */
+    void put(@NonNull String job, int build, @NonNull Map<String, V> prefetched, long token) {
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(TTL_SECONDS);
+        if (fingerprints.size() + prefetched.size() > MAX_FINGERPRINTS) {
+            evictExpired();
+            if (fingerprints.size() + prefetched.size() > MAX_FINGERPRINTS) {
+                return;
+            }
+        }
+        for (Map.Entry<String, V> fingerprint : prefetched.entrySet()) {
+            fingerprints.put(fingerprint.getKey(), new Entry<>(fingerprint.getValue(), expiresAt));
+        }
+        builds.put(key(job, build), expiresAt);
+        if (invalidations.get() != token) {
+            // A change raced with the prefetch, its result may predate the change
+            for (String id : prefetched.keySet()) {
+                fingerprints.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Returns the buffered fingerprint with the given id, or {@code null} if it has not been prefetched.
+     */
+    @CheckForNull
+    V get(@NonNull String id) {
+        Entry<V> entry = fingerprints.get(id);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            fingerprints.remove(id, entry);
+            return null;
+        }
+        return entry.fingerprint;
+    }
+
+    /**
+     * Drops the fingerprint from the buffer, called once it was saved or deleted.
+     */
+    void invalidate(@NonNull String id) {
+        invalidations.incrementAndGet();
+        fingerprints.remove(id);
+    }
+
+    void clear() {
+        invalidations.incrementAndGet();
+        fingerprints.clear();
+        builds.clear();
+    }
+
+    int size() {
+        return fingerprints.size();
+    }
+
+    private void evictExpired() {
+        long now = System.nanoTime();
+        fingerprints.values().removeIf(entry -> now - entry.expiresAt >= 0);
+        builds.values().removeIf(expiresAt -> now - expiresAt >= 0);
+    }
+
+    private static String key(String job, int build) {
+        return job + '#' + build;
+    }
+}
@@ -1,15 +1,10 @@
 package io.jenkins.plugins.sql.fingerprint.storage;
 
-import edu.umd.cs.findbugs.annotations.NonNull;
-import java.io.IOException;
-import java.io.InputStream;
-import java.sql.SQLException;
-import java.util.Properties;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 /**
- * Reads SQL queries from {@link #propertiesFileName}.
+ * Names of the SQL queries defined by every {@link SqlDialect}.
  */
 @Restricted(NoExternalUse.class)
 public class Queries {
@@ -18,62 +13,43 @@ public class Queries {
     static final String INSERT_FINGERPRINT_JOB_BUILD_RELATION = "insert_fingerprint_job_build_relation";
     static final String INSERT_FINGERPRINT_FACET_RELATION = "insert_fingerprint_facet_relation";
     static final String SELECT_FINGERPRINT = "select_fingerprint";
+    static final String SELECT_FINGERPRINT_WITHOUT_USAGES = "select_fingerprint_without_usages";
+    static final String SELECT_FINGERPRINT_USAGES_PAGE = "select_fingerprint_usages_page";
     static final String SELECT_FINGERPRINT_EXISTS_FOR_INSTANCE = "select_fingerprint_exists_for_instance";
     static final String DELETE_FINGERPRINT = "delete_fingerprint";
+    static final String SELECT_FINGERPRINT_IDS_PAGE = "select_fingerprint_ids_page";
+    static final String INSERT_FINGERPRINT_CHANGE = "insert_fingerprint_change";
+    static final String SELECT_FINGERPRINT_CHANGES_PAGE = "select_fingerprint_changes_page";
+    static final String DELETE_FINGERPRINT_CHANGES_BEFORE = "delete_fingerprint_changes_before";
+    static final String SELECT_FINGERPRINTS_EXPORT_PAGE = "select_fingerprints_export_page";
+    static final String SELECT_FINGERPRINT_JOB_BUILD_RELATIONS_EXPORT =
+            "select_fingerprint_job_build_relations_export";
+    static final String SELECT_FINGERPRINT_FACET_RELATIONS_EXPORT = "select_fingerprint_facet_relations_export";
+    static final String SELECT_FINGERPRINT_INSTANCES = "select_fingerprint_instances";
+    static final String SELECT_FINGERPRINT_CONTENT = "select_fingerprint_content";
+    static final String INSERT_FINGERPRINT_CONTENT = "insert_fingerprint_content";
+    static final String DELETE_UNUSED_FINGERPRINT_CONTENT = "delete_unused_fingerprint_content";
+    static final String SELECT_FINGERPRINTS_FOR_BUILD = "select_fingerprints_for_build";
+    static final String SELECT_FINGERPRINT_JOB_USAGE_COUNTS = "select_fingerprint_job_usage_counts";
+    static final String UPSERT_FINGERPRINT_JOB_SUMMARY = "upsert_fingerprint_job_summary";
+    static final String SELECT_FINGERPRINT_JOB_SUMMARIES = "select_fingerprint_job_summaries";
+    static final String SELECT_FINGERPRINT_JOB_SUMMARY = "select_fingerprint_job_summary";
+    static final String DELETE_EMPTY_FINGERPRINT_JOB_SUMMARIES = "delete_empty_fingerprint_job_summaries";
+    static final String SELECT_NEXT_FINGERPRINT_JOB_BUILD_RELATION_INSTANCE =
+            "select_next_fingerprint_job_build_relation_instance";
+    static final String SELECT_FINGERPRINT_JOB_BUILD_RELATION_JOBS_PAGE =
+            "select_fingerprint_job_build_relation_jobs_page";
+    static final String DELETE_FINGERPRINT_JOB_SUMMARIES_RANGE = "delete_fingerprint_job_summaries_range";
+    static final String REBUILD_FINGERPRINT_JOB_SUMMARIES_RANGE = "rebuild_fingerprint_job_summaries_range";
+    static final String DELETE_FINGERPRINT_JOB_SUMMARIES = "delete_fingerprint_job_summaries";
+    static final String REBUILD_FINGERPRINT_JOB_SUMMARIES = "rebuild_fingerprint_job_summaries";
+    static final String SELECT_SCHEMA_VERSION = "select_schema_version";
+    static final String SELECT_ONLINE_MIGRATIONS = "select_online_migrations";
+    static final String INSERT_ONLINE_MIGRATION = "insert_online_migration";
+    static final String UPDATE_ONLINE_MIGRATION = "update_online_migration";
+    static final String SELECT_FINGERPRINT_IDS_ALL_INSTANCES_PAGE = "select_fingerprint_ids_all_instances_page";
+    static final String BACKFILL_FINGERPRINT_CHANGE_LOG = "backfill_fingerprint_change_log";
     static final String SELECT_FINGERPRINT_COUNT = "select_fingerprint_count";
     static final String SELECT_FINGERPRINT_JOB_BUILD_RELATION_COUNT = "select_fingerprint_job_build_relation_count";
     static final String SELECT_FINGERPRINT_FACET_RELATION_COUNT = "select_fingerprint_facet_relation_count";
-
-    private static Properties postgresqlProperties;
-    private static Properties mysqlProperties;
-    private static Properties mariaDbProperties;
-
-    static {
-
-        // Load all properties
-        try (InputStream inputStream = Queries.class.getResourceAsStream("postgresql_Queries.properties")) {
-            postgresqlProperties = new Properties();
-            postgresqlProperties.load(inputStream);
-        } catch (IOException e) {
-            postgresqlProperties = null;
-        }
-        try (InputStream inputStream = Queries.class.getResourceAsStream("mariadb_Queries.properties")) {
-            mariaDbProperties = new Properties();
-            mariaDbProperties.load(inputStream);
-        } catch (IOException e) {
-            mariaDbProperties = null;
-        }
-        try (InputStream inputStream = Queries.class.getResourceAsStream("mysql_Queries.properties")) {
-            mysqlProperties = new Properties();
-            mysqlProperties.load(inputStream);
-        } catch (IOException e) {
-            mysqlProperties = null;
-        }
-    }
-
-    /**
-     * Returns the SQL query with the given query name from {@link #propertiesFileName}.
-     */
-    static @NonNull String getQuery(String database, @NonNull String query) throws SQLException {
-        if (postgresqlProperties == null) {
-            throw new SQLException("Unable to load property file: " + postgresqlProperties);
-        }
-        if (mariaDbProperties == null) {
-            throw new SQLException("Unable to load property file: " + mariaDbProperties);
-        }
-        if (mysqlProperties == null) {
-            throw new SQLException("Unable to load property file: " + mysqlProperties);
-        }
-
-        switch (database) {
-            case "postgresql":
-                return postgresqlProperties.getProperty(query);
-            case "mariadb":
-                return mariaDbProperties.getProperty(query);
-            case "mysql":
-                return mysqlProperties.getProperty(query);
-            default:
-                throw new SQLException("Unknown database: " + database);
-        }
-    }
 }
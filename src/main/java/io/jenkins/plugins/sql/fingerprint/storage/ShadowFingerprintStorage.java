@@ -0,0 +1,286 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.model.Fingerprint;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.fingerprints.FingerprintStorage;
+import jenkins.fingerprints.FingerprintStorageDescriptor;
+import jenkins.model.FingerprintFacet;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+
+/**
+ * Keeps fingerprints in the file storage of Jenkins while mirroring every save, load and deletion to a
+ * {@link SqlFingerprintStorage}, to compare both storages under the real load of a controller before switching.
+ * <p>
+ * The file storage stays authoritative: operations return its result and failures of the SQL storage are only
+ * counted. Mirrored operations run in order on a single thread, so a load compared against the SQL storage sees the
+ * changes preceding it. Latencies and comparisons are shown by {@link FingerprintStorageDiagnostics}.
+ */
+public class ShadowFingerprintStorage extends FingerprintStorage {
+
+    private static final Logger LOGGER = Logger.getLogger(ShadowFingerprintStorage.class.getName());
+
+    static final int DEFAULT_SAMPLE_RATE = 10;
+    static final int MAX_PENDING = 10_000;
+    private static final String FILE_FINGERPRINT_STORAGE = "jenkins.fingerprints.FileFingerprintStorage";
+
+    private final SqlFingerprintStorage sql;
+    private int sampleRate = DEFAULT_SAMPLE_RATE;
+
+    private transient ThreadPoolExecutor executor;
+    private transient ShadowStatistics statistics;
+
+    @DataBoundConstructor
+    public ShadowFingerprintStorage(@NonNull SqlFingerprintStorage sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * Returns the SQL storage the operations are mirrored to.
+     */
+    public @NonNull SqlFingerprintStorage getSql() {
+        return sql;
+    }
+
+    /**
+     * Returns how many loads are mirrored for one to be compared, {@code 0} meaning loads are not compared.
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    @DataBoundSetter
+    public void setSampleRate(int sampleRate) {
+        this.sampleRate = Math.max(0, sampleRate);
+    }
+
+    public synchronized @NonNull ShadowStatistics getStatistics() {
+        if (statistics == null) {
+            statistics = new ShadowStatistics();
+        }
+        return statistics;
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            ShadowStatistics _statistics = getStatistics();
+            executor = new ThreadPoolExecutor(
+                    1,
+                    1,
+                    0,
+                    TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(MAX_PENDING),
+                    new NamingThreadFactory(new DaemonThreadFactory(), ShadowFingerprintStorage.class.getSimpleName()),
+                    (runnable, pool) -> _statistics.recordDropped());
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the number of operations waiting to be mirrored.
+     */
+    public int getPending() {
+        ThreadPoolExecutor _executor;
+        synchronized (this) {
+            _executor = executor;
+        }
+        return _executor == null ? 0 : _executor.getQueue().size();
+    }
+
+    /**
+     * Waits for the operations submitted so far to be mirrored.
+     * @return false if they are still pending once the timeout elapsed.
+     */
+    boolean awaitMirror(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            executor().submit(() -> {}).get(timeout, unit);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private static FingerprintStorage fileStorage() {
+        // Looked up by name as the class is not part of the API of Jenkins
+        for (FingerprintStorage storage : ExtensionList.lookup(FingerprintStorage.class)) {
+            if (storage.getClass().getName().equals(FILE_FINGERPRINT_STORAGE)) {
+                return storage;
+            }
+        }
+        throw new IllegalStateException("The file fingerprint storage of Jenkins is not available");
+    }
+
+    @Override
+    public void save(@NonNull Fingerprint fingerprint) throws IOException {
+        long start = System.nanoTime();
+        fileStorage().save(fingerprint);
+        getStatistics().recordFile(ShadowStatistics.Operation.SAVE, System.nanoTime() - start);
+        // Builds keep adding usages to the fingerprint, so the copy mirrored is taken while the save holds its lock
+        String copy = XStreamHandler.getXStream().toXML(fingerprint);
+        mirror(ShadowStatistics.Operation.SAVE, fingerprint.getHashString(), null, () -> {
+            sql.save((Fingerprint) XStreamHandler.getXStream().fromXML(copy));
+            return null;
+        });
+    }
+
+    @Override
+    public @CheckForNull Fingerprint load(@NonNull String id) throws IOException {
+        long start = System.nanoTime();
+        Fingerprint fingerprint = fileStorage().load(id);
+        getStatistics().recordFile(ShadowStatistics.Operation.LOAD, System.nanoTime() - start);
+        // Fingerprints are mutable, so the sampled result is described before returning it
+        String expected = isSampled() ? describe(fingerprint) : null;
+        mirror(ShadowStatistics.Operation.LOAD, id, expected, () -> sql.load(id));
+        return fingerprint;
+    }
+
+    @Override
+    public void delete(@NonNull String id) throws IOException {
+        long start = System.nanoTime();
+        fileStorage().delete(id);
+        getStatistics().recordFile(ShadowStatistics.Operation.DELETE, System.nanoTime() - start);
+        mirror(ShadowStatistics.Operation.DELETE, id, null, () -> {
+            sql.delete(id);
+            return null;
+        });
+    }
+
+    @Override
+    public boolean isReady() {
+        return fileStorage().isReady();
+    }
+
+    /**
+     * Cleans up the file storage, the fingerprints it deletes or trims are mirrored like any other change. The
+     * fingerprints of the SQL storage are not cleaned up on their own, cleaning them up would load them through this
+     * storage from the file storage.
+     */
+    @Override
+    public void iterateAndCleanupFingerprints(TaskListener taskListener) {
+        fileStorage().iterateAndCleanupFingerprints(taskListener);
+        sql.cleanupTables(taskListener);
+    }
+
+    private boolean isSampled() {
+        return sampleRate > 0 && ThreadLocalRandom.current().nextInt(sampleRate) == 0;
+    }
+
+    @FunctionalInterface
+    private interface MirroredOperation {
+        @CheckForNull
+        Fingerprint run() throws IOException;
+    }
+
+    /**
+     * Runs the operation against the SQL storage in the background.
+     * @param expected the description of the fingerprint loaded from the file storage to compare the result with,
+     * {@code null} if it is not compared.
+     */
+    private void mirror(
+            @NonNull ShadowStatistics.Operation operation,
+            @NonNull String id,
+            @CheckForNull String expected,
+            @NonNull MirroredOperation mirrored) {
+        ShadowStatistics _statistics = getStatistics();
+        executor().execute(() -> {
+            long start = System.nanoTime();
+            try {
+                Fingerprint fingerprint = mirrored.run();
+                _statistics.recordSql(operation, System.nanoTime() - start);
+                if (expected != null) {
+                    compare(id, expected, fingerprint);
+                }
+            } catch (IOException | RuntimeException e) {
+                _statistics.recordFailure();
+                LOGGER.log(Level.FINE, "Failed mirroring " + operation + " of fingerprint " + id, e);
+            }
+        });
+    }
+
+    /**
+     * Compares the fingerprint loaded from the SQL storage with the one loaded from the file storage. A difference
+     * is only counted if the SQL storage also differs from the file storage now, since a save mirrored after the
+     * load may have been applied to a fingerprint modified in the meantime.
+     */
+    private void compare(@NonNull String id, @NonNull String expected, @CheckForNull Fingerprint mirrored)
+            throws IOException {
+        if (mirrored != null) {
+            sql.completeUsages(mirrored);
+        }
+        String actual = describe(mirrored);
+        boolean equal = expected.equals(actual) || describe(fileStorage().load(id)).equals(actual);
+        if (!equal) {
+            LOGGER.log(
+                    Level.FINE,
+                    "Fingerprint {0} differs between the file and SQL storages:\n{1}\n{2}",
+                    new Object[] {id, expected, actual});
+        }
+        getStatistics().recordComparison(id, equal);
+    }
+
+    /**
+     * Returns the content of the fingerprint which both storages must preserve, independently of the order of its
+     * usages and facets.
+     */
+    static @NonNull String describe(@CheckForNull Fingerprint fingerprint) {
+        if (fingerprint == null) {
+            return "none";
+        }
+        StringBuilder description = new StringBuilder(fingerprint.getHashString())
+                .append(' ')
+                .append(fingerprint.getFileName())
+                .append(' ')
+                .append(fingerprint.getTimestamp().getTime());
+        Fingerprint.BuildPtr original = fingerprint.getOriginal();
+        if (original != null) {
+            description.append(" original=").append(original.getName()).append('#').append(original.getNumber());
+        }
+        Hashtable<String, Fingerprint.RangeSet> usages = fingerprint.getUsages();
+        if (usages != null) {
+            for (Map.Entry<String, Fingerprint.RangeSet> usage : new TreeMap<>(usages).entrySet()) {
+                description.append(' ').append(usage.getKey()).append('=').append(usage.getValue());
+            }
+        }
+        List<String> facets = new ArrayList<>();
+        for (FingerprintFacet facet : fingerprint.getPersistedFacets()) {
+            facets.add(XStreamHandler.getXStream().toXML(facet));
+        }
+        Collections.sort(facets);
+        for (String facet : facets) {
+            description.append(' ').append(facet);
+        }
+        return description.toString();
+    }
+
+    @Extension
+    @Symbol("sqlShadow")
+    public static class DescriptorImpl extends FingerprintStorageDescriptor {
+
+        @Override
+        public @NonNull String getDisplayName() {
+            return Messages.ShadowFingerprintStorage_DisplayName();
+        }
+    }
+}
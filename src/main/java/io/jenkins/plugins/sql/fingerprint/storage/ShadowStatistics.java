@@ -0,0 +1,207 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Latencies and outcomes of the operations of a {@link ShadowFingerprintStorage}, for both the file storage and the
+ * SQL storage shadowing it.
+ */
+@Restricted(NoExternalUse.class)
+public class ShadowStatistics {
+
+    static final int MAX_RECENT_MISMATCHES = 20;
+
+    enum Operation {
+        SAVE,
+        LOAD,
+        DELETE
+    }
+
+    private final Map<Operation, LatencyHistogram> fileLatencies = new EnumMap<>(Operation.class);
+    private final Map<Operation, LatencyHistogram> sqlLatencies = new EnumMap<>(Operation.class);
+    private final LongAdder mirrored = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder compared = new LongAdder();
+    private final LongAdder mismatched = new LongAdder();
+    private final Deque<String> recentMismatches = new ArrayDeque<>();
+
+    ShadowStatistics() {
+        for (Operation operation : Operation.values()) {
+            fileLatencies.put(operation, new LatencyHistogram());
+            sqlLatencies.put(operation, new LatencyHistogram());
+        }
+    }
+
+    void recordFile(@NonNull Operation operation, long nanos) {
+        fileLatencies.get(operation).record(nanos);
+    }
+
+    void recordSql(@NonNull Operation operation, long nanos) {
+        sqlLatencies.get(operation).record(nanos);
+        mirrored.increment();
+    }
+
+    void recordFailure() {
+        failed.increment();
+    }
+
+    void recordDropped() {
+        dropped.increment();
+    }
+
+    void recordComparison(@NonNull String id, boolean equal) {
+        compared.increment();
+        if (!equal) {
+            mismatched.increment();
+            synchronized (recentMismatches) {
+                recentMismatches.remove(id);
+                recentMismatches.addFirst(id);
+                if (recentMismatches.size() > MAX_RECENT_MISMATCHES) {
+                    recentMismatches.removeLast();
+                }
+            }
+        }
+    }
+
+    LatencyHistogram getFileLatency(@NonNull Operation operation) {
+        return fileLatencies.get(operation);
+    }
+
+    LatencyHistogram getSqlLatency(@NonNull Operation operation) {
+        return sqlLatencies.get(operation);
+    }
+
+    /**
+     * Returns the latencies of each operation, for the file storage followed by the SQL storage.
+     */
+    public @NonNull List<Row> getRows() {
+        List<Row> rows = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            rows.add(new Row(operation, "File", fileLatencies.get(operation)));
+            rows.add(new Row(operation, "SQL", sqlLatencies.get(operation)));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the number of operations applied to the SQL storage.
+     */
+    public long getMirrored() {
+        return mirrored.sum();
+    }
+
+    /**
+     * Returns the number of operations which failed against the SQL storage.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of operations not applied to the SQL storage because too many were already pending.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Returns the number of loads whose result was compared between both storages.
+     */
+    public long getCompared() {
+        return compared.sum();
+    }
+
+    /**
+     * Returns the number of compared loads whose result differed.
+     */
+    public long getMismatched() {
+        return mismatched.sum();
+    }
+
+    /**
+     * Returns the IDs of the fingerprints which last differed, most recent first.
+     */
+    public @NonNull List<String> getRecentMismatches() {
+        synchronized (recentMismatches) {
+            return new ArrayList<>(recentMismatches);
+        }
+    }
+
+    void reset() {
+        for (Operation operation : Operation.values()) {
+            fileLatencies.get(operation).reset();
+            sqlLatencies.get(operation).reset();
+        }
+        mirrored.reset();
+        failed.reset();
+        dropped.reset();
+        compared.reset();
+        mismatched.reset();
+        synchronized (recentMismatches) {
+            recentMismatches.clear();
+        }
+    }
+
+    /**
+     * Latencies of one operation against one storage, as displayed by {@link FingerprintStorageDiagnostics}.
+     */
+    public static final class Row {
+
+        private final Operation operation;
+        private final String storage;
+        private final LatencyHistogram histogram;
+
+        Row(Operation operation, String storage, LatencyHistogram histogram) {
+            this.operation = operation;
+            this.storage = storage;
+            this.histogram = histogram;
+        }
+
+        public @NonNull String getOperation() {
+            return operation.name().toLowerCase(Locale.ROOT);
+        }
+
+        public @NonNull String getStorage() {
+            return storage;
+        }
+
+        public long getCount() {
+            return histogram.getCount();
+        }
+
+        public @NonNull String getMean() {
+            return format(histogram.getMeanMillis());
+        }
+
+        public @NonNull String getP50() {
+            return format(histogram.getPercentileMillis(0.5));
+        }
+
+        public @NonNull String getP95() {
+            return format(histogram.getPercentileMillis(0.95));
+        }
+
+        public @NonNull String getP99() {
+            return format(histogram.getPercentileMillis(0.99));
+        }
+
+        public @NonNull String getMax() {
+            return format(histogram.getMaxMillis());
+        }
+
+        private static String format(double millis) {
+            return String.format(Locale.ROOT, "%.2f ms", millis);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Bounded log of the statements which took longer than the
+ * {@link SqlFingerprintStorage#getSlowOperationThreshold() slow operation threshold}, shown by
+ * {@link FingerprintStorageDiagnostics}.
+ * <p>
+ * Statements record the shape of their parameters, never their values. For a slow {@code SELECT}, at most once per
+ * {@link #PLAN_INTERVAL_SECONDS} and query, the plan of the statement is captured in the background on another
+ * connection with the {@link SqlDialect#getExplainPrefix(boolean) EXPLAIN statement of the dialect}. Capturing the
+ * plan may run the query again, so it is bounded by the query timeout of the storage and skipped while the
+ * {@link ConcurrencyLimiter} is saturated. Statements which failed, like those cancelled by the query timeout, are
+ * explained without running them again.
+ */
+@Restricted(NoExternalUse.class)
+public class SlowOperationLog {
+
+    private static final Logger LOGGER = Logger.getLogger(SlowOperationLog.class.getName());
+
+    static final int CAPACITY = 100;
+    static final long PLAN_INTERVAL_SECONDS = 60;
+    private static final int MAX_PENDING_PLANS = 4;
+    private static final int MAX_PLAN_LENGTH = 64 * 1024;
+
+    private final SqlFingerprintStorage storage;
+    private final Deque<SlowOperation> operations = new ArrayDeque<>();
+    private final Map<String, Long> lastPlans = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor planExecutor = new ThreadPoolExecutor(
+            0,
+            1,
+            1,
+            TimeUnit.MINUTES,
+            new ArrayBlockingQueue<>(MAX_PENDING_PLANS),
+            new NamingThreadFactory(new DaemonThreadFactory(), SlowOperationLog.class.getSimpleName()),
+            new ThreadPoolExecutor.DiscardPolicy());
+
+    SlowOperationLog(@NonNull SqlFingerprintStorage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Returns a statement recording itself in this log when one of its executions exceeds the threshold.
+     */
+    @NonNull
+    PreparedStatement monitor(
+            @NonNull PreparedStatement preparedStatement,
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull String query,
+            @NonNull String sql,
+            long thresholdNanos)
+            throws SQLException {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                SlowOperationLog.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                new MonitoredStatement(preparedStatement, supplier, supplier.getDialect(), query, sql, thresholdNanos));
+    }
+
+    /**
+     * Returns the slow operations, most recent first.
+     */
+    public @NonNull List<SlowOperation> getOperations() {
+        synchronized (operations) {
+            return new ArrayList<>(operations);
+        }
+    }
+
+    void clear() {
+        synchronized (operations) {
+            operations.clear();
+        }
+        lastPlans.clear();
+    }
+
+    void record(@NonNull SlowOperation operation) {
+        synchronized (operations) {
+            operations.addFirst(operation);
+            if (operations.size() > CAPACITY) {
+                operations.removeLast();
+            }
+        }
+        LOGGER.log(Level.FINE, "Slow fingerprint statement {0}", operation);
+    }
+
+    /**
+     * Returns whether the plan of the query should be captured now, at most once per {@link #PLAN_INTERVAL_SECONDS}.
+     */
+    boolean shouldCapturePlan(@NonNull String query) {
+        long now = System.nanoTime();
+        Long last = lastPlans.get(query);
+        if (last != null && now - last < TimeUnit.SECONDS.toNanos(PLAN_INTERVAL_SECONDS)) {
+            return false;
+        }
+        return last == null ? lastPlans.putIfAbsent(query, now) == null : lastPlans.replace(query, last, now);
+    }
+
+    private void capturePlan(
+            @NonNull SlowOperation operation,
+            @NonNull SqlFingerprintStorage.ConnectionSupplier supplier,
+            @NonNull SqlDialect dialect,
+            @NonNull String sql,
+            @NonNull Map<Integer, Object[]> parameters,
+            boolean failed) {
+        String prefix = dialect.getExplainPrefix(!failed);
+        if (prefix == null) {
+            return;
+        }
+        planExecutor.execute(() -> {
+            ConcurrencyLimiter limiter = storage.getConcurrencyLimiter();
+            if (limiter != null && limiter.getInFlight() >= limiter.getLimit()) {
+                LOGGER.log(Level.FINE, "Skipped capturing the plan of {0}, the database is busy", operation);
+                return;
+            }
+            try (ConcurrencyLimiter.Permit permit = limiter == null ? null : limiter.acquire(0, TimeUnit.SECONDS)) {
+                if (limiter != null && permit == null) {
+                    LOGGER.log(Level.FINE, "Skipped capturing the plan of {0}, the database is busy", operation);
+                    return;
+                }
+                try (Connection connection = supplier.connection();
+                        PreparedStatement explain = connection.prepareStatement(prefix + sql)) {
+                    int queryTimeout = storage.getQueryTimeout();
+                    if (queryTimeout > 0) {
+                        explain.setQueryTimeout(queryTimeout);
+                    }
+                    for (Object[] parameter : parameters.values()) {
+                        Method setter = (Method) parameter[0];
+                        setter.invoke(explain, (Object[]) parameter[1]);
+                    }
+                    StringBuilder plan = new StringBuilder();
+                    try (ResultSet resultSet = explain.executeQuery()) {
+                        while (resultSet.next() && plan.length() < MAX_PLAN_LENGTH) {
+                            plan.append(resultSet.getString(1)).append('\n');
+                        }
+                    }
+                    operation.plan = plan.toString();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException | ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Failed capturing the plan of " + operation.getQuery(), e);
+            }
+        });
+    }
+
+    private static boolean isSelect(@NonNull String sql) {
+        return sql.stripLeading().regionMatches(true, 0, "SELECT", 0, 6);
+    }
+
+    /**
+     * Times the executions of a statement and remembers its parameters to explain it.
+     */
+    private final class MonitoredStatement implements InvocationHandler {
+
+        private final PreparedStatement delegate;
+        private final SqlFingerprintStorage.ConnectionSupplier supplier;
+        private final SqlDialect dialect;
+        private final String query;
+        private final String sql;
+        private final long thresholdNanos;
+        private final Map<Integer, Object[]> parameters = new TreeMap<>();
+
+        MonitoredStatement(
+                PreparedStatement delegate,
+                SqlFingerprintStorage.ConnectionSupplier supplier,
+                SqlDialect dialect,
+                String query,
+                String sql,
+                long thresholdNanos) {
+            this.delegate = delegate;
+            this.supplier = supplier;
+            this.dialect = dialect;
+            this.query = query;
+            this.sql = sql;
+            this.thresholdNanos = thresholdNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                parameters.put((Integer) args[0], new Object[] {method, args});
+            } else if (name.equals("clearParameters")) {
+                parameters.clear();
+            }
+            if (!name.startsWith("execute")) {
+                return invokeDelegate(method, args);
+            }
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                return invokeDelegate(method, args);
+            } catch (SQLException e) {
+                failed = true;
+                throw e;
+            } finally {
+                long duration = System.nanoTime() - start;
+                if (duration >= thresholdNanos) {
+                    SlowOperation operation = new SlowOperation(
+                            query, dialect.getName(), shapes(), TimeUnit.NANOSECONDS.toMillis(duration));
+                    record(operation);
+                    if (isSelect(sql) && shouldCapturePlan(query)) {
+                        capturePlan(operation, supplier, dialect, sql, new TreeMap<>(parameters), failed);
+                    }
+                }
+            }
+        }
+
+        private Object invokeDelegate(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(delegate, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Returns the type of each parameter, and the length of strings, without their values.
+         */
+        private String shapes() {
+            List<String> shapes = new ArrayList<>();
+            for (Object[] parameter : parameters.values()) {
+                Method setter = (Method) parameter[0];
+                Object value = ((Object[]) parameter[1])[1];
+                String type = setter.getName().substring(3).toLowerCase(Locale.ROOT);
+                shapes.add(value instanceof String ? type + "(" + ((String) value).length() + ")" : type);
+            }
+            return String.join(", ", shapes);
+        }
+    }
+
+    /**
+     * Statement which took longer than the threshold.
+     */
+    public static final class SlowOperation {
+
+        private final String query;
+        private final String dialect;
+        private final String parameters;
+        private final long durationMillis;
+        private final long timestamp = System.currentTimeMillis();
+        private volatile String plan;
+
+        SlowOperation(String query, String dialect, String parameters, long durationMillis) {
+            this.query = query;
+            this.dialect = dialect;
+            this.parameters = parameters;
+            this.durationMillis = durationMillis;
+        }
+
+        /**
+         * Returns the key of the query in the {@link Queries} of the dialect.
+         */
+        public @NonNull String getQuery() {
+            return query;
+        }
+
+        public @NonNull String getDialect() {
+            return dialect;
+        }
+
+        /**
+         * Returns the types of the parameters in order, for example {@code string(64), int}.
+         */
+        public @NonNull String getParameters() {
+            return parameters;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public @NonNull Date getTimestamp() {
+            return new Date(timestamp);
+        }
+
+        /**
+         * Returns the plan of the statement, or {@code null} if it was not captured.
+         */
+        public @CheckForNull String getPlan() {
+            return plan;
+        }
+
+        @Override
+        public String toString() {
+            return query + " (" + parameters + ") took " + durationMillis + " ms on " + dialect;
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Append-only log of the fingerprint changes which could not be written to the database.
+ * <p>
+ * Each record holds the type of change, the fingerprint id and, for saves, the serialized fingerprint. The latest
+ * record of every fingerprint is indexed in memory so that loads see spilled changes before they reach the
+ * database. Records are read back in order by {@link #readBatch(int)} and dropped from the index once applied or
+ * superseded by a change written directly to the database. Both are logged as {@link #APPLIED} markers so that a
+ * restart never replays a stale change, and the file is truncated as soon as no change is pending.
+ * <p>
+ * Every record is forced to the disk before the change is acknowledged, so spilled changes survive a crash of the
+ * controller or a power loss.
+ * <p>
+ * Writes to the file are serialized on the monitor of the spill file, while {@link #pending(String)}, called by every
+ * load, reads without it: records never move once appended, so reads only exclude the truncation of the file. Loads
+ * therefore do not wait for the disk while changes are being spilled, nor take any lock while no change is pending.
+ */
+@Restricted(NoExternalUse.class)
+public class SpillFile {
+
+    private static final Logger LOGGER = Logger.getLogger(SpillFile.class.getName());
+
+    static final byte SAVE = 1;
+    static final byte DELETE = 2;
+    static final byte APPLIED = 3;
+
+    private final File file;
+    private final Map<String, Long> latest = new ConcurrentHashMap<>();
+    /**
+     * Held to read records outside of the monitor, and exclusively to truncate the file.
+     */
+    private final ReadWriteLock truncation = new ReentrantReadWriteLock();
+
+    private volatile RandomAccessFile raf;
+    private long position;
+    /**
+     * Incremented every time the file is truncated, so that records read before do not match new ones.
+     */
+    private volatile long generation;
+
+    SpillFile(@NonNull File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            open();
+            recover();
+        }
+    }
+
+    /**
+     * A change read back from the file.
+     */
+    static final class Record {
+        final long generation;
+        final long offset;
+        final long end;
+        final byte type;
+        final String id;
+        final String payload;
+
+        Record(long generation, long offset, long end, byte type, String id, String payload) {
+            this.generation = generation;
+            this.offset = offset;
+            this.end = end;
+            this.type = type;
+            this.id = id;
+            this.payload = payload;
+        }
+
+        boolean isDelete() {
+            return type == DELETE;
+        }
+    }
+
+    /**
+     * Appends the serialized fingerprint saved under the given id.
+     */
+    synchronized void appendSave(@NonNull String id, @NonNull String payload) throws IOException {
+        latest.put(id, append(SAVE, id, payload));
+    }
+
+    /**
+     * Appends the deletion of the fingerprint with the given id.
+     */
+    synchronized void appendDelete(@NonNull String id) throws IOException {
+        latest.put(id, append(DELETE, id, ""));
+    }
+
+    private long append(byte type, String id, String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length + id.length() + 16);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            out.writeByte(type);
+            out.writeUTF(id);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+        open();
+        long offset = raf.length();
+        raf.seek(offset);
+        raf.write(buffer.toByteArray());
+        // The record must survive a crash of the controller, the database only gets it once replayed
+        raf.getChannel().force(false);
+        return offset;
+    }
+
+    /**
+     * Returns the latest pending change of the given fingerprint, or {@code null} if the database is up to date.
+     */
+    @CheckForNull
+    Record pending(@NonNull String id) throws IOException {
+        if (latest.isEmpty()) {
+            return null;
+        }
+        truncation.readLock().lock();
+        try {
+            // Offsets are indexed once their record is written, and the file is only truncated once none is left
+            Long offset = latest.get(id);
+            if (offset == null) {
+                return null;
+            }
+            return read(offset);
+        } finally {
+            truncation.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether the record is still the latest change of its fingerprint and needs to be applied.
+     */
+    boolean isLatest(@NonNull Record record) {
+        Long offset = latest.get(record.id);
+        return record.generation == generation && offset != null && offset == record.offset;
+    }
+
+    /**
+     * Forgets the pending change of the fingerprint, which was written to the database directly. Callers serialize
+     * the changes of a fingerprint, so no change of the same fingerprint is spilled concurrently.
+     */
+    void supersede(@NonNull String id) throws IOException {
+        if (!latest.containsKey(id)) {
+            return;
+        }
+        synchronized (this) {
+            if (latest.containsKey(id)) {
+                markApplied(id);
+            }
+        }
+    }
+
+    /**
+     * Forgets the given record once it has been applied to the database, unless a newer change was spilled since.
+     */
+    synchronized void applied(@NonNull Record record) throws IOException {
+        if (isLatest(record)) {
+            markApplied(record.id);
+        }
+    }
+
+    private void markApplied(String id) throws IOException {
+        latest.remove(id);
+        if (latest.isEmpty()) {
+            truncation.writeLock().lock();
+            try {
+                raf.setLength(0);
+                position = 0;
+                generation++;
+            } finally {
+                truncation.writeLock().unlock();
+            }
+            raf.getChannel().force(false);
+        } else {
+            append(APPLIED, id, "");
+        }
+    }
+
+    /**
+     * Returns up to {@code size} records following the last batch, without consuming them. Call
+     * {@link #advance(Record)} once they were applied.
+     */
+    synchronized List<Record> readBatch(int size) throws IOException {
+        if (raf == null) {
+            return Collections.emptyList();
+        }
+        List<Record> records = new ArrayList<>(size);
+        long offset = position;
+        long length = raf.length();
+        while (records.size() < size && offset < length) {
+            Record record = read(offset);
+            records.add(record);
+            offset = record.end;
+        }
+        return records;
+    }
+
+    /**
+     * Marks every record up to the given one as consumed.
+     */
+    synchronized void advance(@NonNull Record last) {
+        if (last.generation == generation) {
+            position = last.end;
+        }
+    }
+
+    /**
+     * Returns whether changes are waiting to be written to the database.
+     */
+    boolean isEmpty() {
+        return latest.isEmpty();
+    }
+
+    int size() {
+        return latest.size();
+    }
+
+    synchronized void close() throws IOException {
+        truncation.writeLock().lock();
+        try {
+            if (raf != null) {
+                raf.close();
+                raf = null;
+            }
+        } finally {
+            truncation.writeLock().unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        if (raf == null) {
+            Files.createDirectories(file.toPath().getParent());
+            raf = new RandomAccessFile(file, "rw");
+        }
+    }
+
+    /**
+     * Reads the record at the given offset with positional reads, which leave the position of the file used by
+     * appends unchanged.
+     */
+    private Record read(long offset) throws IOException {
+        FileChannel channel = raf.getChannel();
+        ByteBuffer type = ByteBuffer.allocate(3);
+        readFully(channel, type, offset);
+        // The type is followed by the length of the id and the id, then by the length of the payload
+        ByteBuffer header = ByteBuffer.allocate(3 + (type.getShort(1) & 0xFFFF) + 4);
+        header.put(type.array());
+        readFully(channel, header, offset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array()));
+        byte recordType = in.readByte();
+        String id = in.readUTF();
+        int size = in.readInt();
+        long start = offset + header.capacity();
+        if (size < 0 || size > channel.size() - start) {
+            throw new EOFException("Incomplete record at offset " + offset);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        readFully(channel, payload, start);
+        return new Record(
+                generation, offset, start + size, recordType, id, new String(payload.array(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Fills the remaining bytes of the buffer from the file, the first byte of the buffer being at the given offset.
+     */
+    private static void readFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer, long offset)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException("Incomplete record at offset " + offset);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index after a restart, dropping a partially written record at the end of the file.
+     */
+    private void recover() throws IOException {
+        long offset = 0;
+        long length = raf.length();
+        while (offset < length) {
+            try {
+                Record record = read(offset);
+                if (record.type == APPLIED) {
+                    latest.remove(record.id);
+                } else {
+                    latest.put(record.id, record.offset);
+                }
+                offset = record.end;
+            } catch (EOFException e) {
+                LOGGER.log(Level.WARNING, "Dropping incomplete record at the end of " + file, e);
+                raf.setLength(offset);
+                break;
+            }
+        }
+        if (latest.isEmpty()) {
+            raf.setLength(0);
+        } else {
+            LOGGER.log(Level.INFO, "{0} fingerprint changes are waiting to be written to the database", latest.size());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Periodically writes the fingerprint changes spilled while the database was unavailable.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class SpillReplayWork extends AsyncPeriodicWork {
+
+    public SpillReplayWork() {
+        super("SQL fingerprint spill replay");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(CircuitBreaker.DEFAULT_OPEN_SECONDS);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        SqlFingerprintStorage storage = SqlFingerprintStorage.configured();
+        if (storage != null) {
+            storage.replaySpill(listener);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import org.jenkinsci.plugins.database.Database;
+import org.jenkinsci.plugins.database.h2.LocalH2Database;
+
+/**
+ * A database supported by {@link SqlFingerprintStorage}.
+ * <p>
+ * A dialect bundles the queries in {@code <name>_Queries.properties} next to the implementation, the Flyway
+ * migrations in {@code db/migration/<name>} and the binding of values the driver cannot convert on its own. Plugins
+ * add support for another database by contributing an implementation as an {@link Extension}.
+ */
+public abstract class SqlDialect implements ExtensionPoint {
+
+    /**
+     * Version of the last migration bundled for the built-in dialects.
+     */
+    static final String SCHEMA_VERSION = "6";
+
+    /**
+     * Space a table or an index must waste before {@link #getMaintenanceStatements} compacts it.
+     */
+    static final long MAINTENANCE_MIN_WASTED_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Share of dead rows, free space or modified rows above which {@link #getMaintenanceStatements} maintains a table.
+     */
+    static final double MAINTENANCE_RATIO = 0.2;
+
+    private volatile Properties queries;
+
+    /**
+     * Returns the name of the dialect, used to locate its queries and migrations.
+     */
+    public abstract @NonNull String getName();
+
+    /**
+     * Returns whether the dialect applies to the given database.
+     */
+    public abstract boolean isApplicable(@NonNull Database database);
+
+    /**
+     * Returns the Flyway location holding the migrations of the dialect.
+     */
+    public @NonNull String getMigrationLocation() {
+        return "db/migration/" + getName();
+    }
+
+    /**
+     * Returns the version of the last migration in {@link #getMigrationLocation()}. When the database already
+     * records this version, the migration is skipped without scanning the migrations. Returns {@code null} to
+     * always run the migration.
+     */
+    public @CheckForNull String getSchemaVersion() {
+        return null;
+    }
+
+    /**
+     * Returns the SQL query with the given name, see {@link Queries}.
+     */
+    public @NonNull String getQuery(@NonNull String query) throws SQLException {
+        String sql = getQueries().getProperty(query);
+        if (sql == null) {
+            throw new SQLException("Unknown query " + query + " for database " + getName());
+        }
+        return sql;
+    }
+
+    private Properties getQueries() throws SQLException {
+        Properties _queries = queries;
+        if (_queries == null) {
+            String file = getName() + "_Queries.properties";
+            try (InputStream inputStream = getClass().getResourceAsStream(file)) {
+                if (inputStream == null) {
+                    throw new SQLException("Unable to load property file: " + file);
+                }
+                _queries = new Properties();
+                _queries.load(inputStream);
+            } catch (IOException e) {
+                throw new SQLException("Unable to load property file: " + file, e);
+            }
+            queries = _queries;
+        }
+        return _queries;
+    }
+
+    /**
+     * Binds a JSON document to a parameter of a statement. The queries of the dialect decide how the parameter is
+     * converted to the JSON type of the database, so most dialects bind it as text.
+     */
+    public void setJson(@NonNull PreparedStatement preparedStatement, int index, @NonNull String json)
+            throws SQLException {
+        preparedStatement.setString(index, json);
+    }
+
+    /**
+     * Makes the driver stream the results of the statement by chunks of about {@code fetchSize} rows instead of
+     * reading all of them in memory. Some drivers also require the connection not to be in auto-commit mode.
+     */
+    public void setFetchSize(@NonNull PreparedStatement preparedStatement, int fetchSize) throws SQLException {
+        preparedStatement.setFetchSize(fetchSize);
+    }
+
+    /**
+     * Returns the prefix turning a query into the statement returning its plan, see {@link SlowOperationLog}, or
+     * {@code null} if plans are not captured for this database.
+     * @param analyze whether the plan may include the actual costs of the query, running it again.
+     */
+    public @CheckForNull String getExplainPrefix(boolean analyze) {
+        return null;
+    }
+
+    /**
+     * Creates the index unless it already exists, without blocking writes to the table when the database supports
+     * it. The connection is in auto-commit mode, as some databases cannot build an index online in a transaction.
+     */
+    public void createIndexOnline(
+            @NonNull Connection connection, @NonNull String table, @NonNull String index, @NonNull String columns)
+            throws SQLException {
+        if (!indexExists(connection, table, index)) {
+            execute(connection, "CREATE INDEX " + index + " ON " + table + " (" + columns + ")");
+        }
+    }
+
+    /**
+     * Returns the statements compacting the given table and its indexes or refreshing their statistics, as the
+     * catalog of the database shows they need it. {@link MaintenanceWork} runs them one at a time in auto-commit mode,
+     * so they must not block writes to the table for long. Returns an empty list if the table needs no maintenance.
+     */
+    public @NonNull List<String> getMaintenanceStatements(@NonNull Connection connection, @NonNull String table)
+            throws SQLException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Returns whether the table has an index with the given name, whatever the case the database stores names in.
+     */
+    protected static boolean indexExists(@NonNull Connection connection, @NonNull String table, @NonNull String index)
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String tableName : new String[] {table, table.toUpperCase(Locale.ROOT), table.toLowerCase(Locale.ROOT)}) {
+            try (ResultSet resultSet =
+                    metaData.getIndexInfo(connection.getCatalog(), null, tableName, false, true)) {
+                while (resultSet.next()) {
+                    if (index.equalsIgnoreCase(resultSet.getString("INDEX_NAME"))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    protected static void execute(@NonNull Connection connection, @NonNull String sql) throws SQLException {
+        execute(connection, sql, 0);
+    }
+
+    /**
+     * Executes the given statement, cancelled by the driver once the timeout in seconds elapses unless it is
+     * {@code 0}.
+     */
+    protected static void execute(@NonNull Connection connection, @NonNull String sql, int timeout)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            if (timeout > 0) {
+                statement.setQueryTimeout(timeout);
+            }
+            statement.execute(sql);
+        }
+    }
+
+    public static @NonNull ExtensionList<SqlDialect> all() {
+        return ExtensionList.lookup(SqlDialect.class);
+    }
+
+    /**
+     * Returns the dialect of the given database.
+     * @throws SQLException if no dialect supports the database.
+     */
+    public static @NonNull SqlDialect forDatabase(@CheckForNull Database database) throws SQLException {
+        if (database == null) {
+            throw new SQLException("No database configured");
+        }
+        for (SqlDialect dialect : all()) {
+            if (dialect.isApplicable(database)) {
+                return dialect;
+            }
+        }
+        throw new SQLException("Unsupported database: " + database.getDescriptor().getDisplayName());
+    }
+
+    /**
+     * Returns the dialect with the given name.
+     * @throws SQLException if no dialect has this name.
+     */
+    public static @NonNull SqlDialect forName(@NonNull String name) throws SQLException {
+        for (SqlDialect dialect : all()) {
+            if (dialect.getName().equals(name)) {
+                return dialect;
+            }
+        }
+        throw new SQLException("Unknown database: " + name);
+    }
+
+    /**
+     * Dialect of the databases provided by plugins identifying them with the given display name.
+     */
+    abstract static class ByDisplayName extends SqlDialect {
+
+        @Override
+        public boolean isApplicable(@NonNull Database database) {
+            return database.getDescriptor().getDisplayName().equalsIgnoreCase(getName());
+        }
+    }
+
+    /**
+     * Dialect of the databases built on InnoDB, which adds indexes in place while the table stays writable.
+     */
+    abstract static class InnoDb extends ByDisplayName {
+
+        @Override
+        public String getExplainPrefix(boolean analyze) {
+            return "EXPLAIN FORMAT=JSON ";
+        }
+
+        @Override
+        public void createIndexOnline(
+                @NonNull Connection connection, @NonNull String table, @NonNull String index, @NonNull String columns)
+                throws SQLException {
+            if (!indexExists(connection, table, index)) {
+                execute(
+                        connection,
+                        "CREATE INDEX " + index + " ON " + table + " (" + columns + ") ALGORITHM=INPLACE LOCK=NONE");
+            }
+        }
+
+        /**
+         * Rebuilds the table, online for InnoDB, once its free space reaches {@link #MAINTENANCE_RATIO} of its
+         * size, and otherwise refreshes its statistics, which samples a few pages of each index. The catalog may
+         * report sizes cached for up to a day.
+         */
+        @Override
+        public @NonNull List<String> getMaintenanceStatements(@NonNull Connection connection, @NonNull String table)
+                throws SQLException {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT DATA_LENGTH + INDEX_LENGTH, DATA_FREE FROM information_schema.TABLES "
+                            + "WHERE TABLE_SCHEMA = DATABASE() AND UPPER(TABLE_NAME) = ?")) {
+                preparedStatement.setString(1, table.toUpperCase(Locale.ROOT));
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return Collections.emptyList();
+                    }
+                    long size = resultSet.getLong(1);
+                    long free = resultSet.getLong(2);
+                    if (free >= MAINTENANCE_MIN_WASTED_BYTES && free >= MAINTENANCE_RATIO * (size + free)) {
+                        return Collections.singletonList("OPTIMIZE TABLE " + table);
+                    }
+                    return Collections.singletonList("ANALYZE TABLE " + table);
+                }
+            }
+        }
+    }
+
+    @Extension
+    public static class PostgreSQL extends ByDisplayName {
+
+        @Override
+        public @NonNull String getName() {
+            return "postgresql";
+        }
+
+        @Override
+        public String getSchemaVersion() {
+            return SCHEMA_VERSION;
+        }
+
+        @Override
+        public String getExplainPrefix(boolean analyze) {
+            return analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ";
+        }
+
+        /**
+         * Builds the index concurrently. A concurrent build which failed leaves an invalid index behind, it is
+         * dropped and built again.
+         */
+        @Override
+        public void createIndexOnline(
+                @NonNull Connection connection, @NonNull String table, @NonNull String index, @NonNull String columns)
+                throws SQLException {
+            Boolean valid = null;
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT i.indisvalid FROM pg_class c JOIN pg_index i ON i.indexrelid = c.oid "
+                            + "WHERE c.relname = ? AND pg_table_is_visible(c.oid)")) {
+                preparedStatement.setString(1, index.toLowerCase(Locale.ROOT));
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (resultSet.next()) {
+                        valid = resultSet.getBoolean(1);
+                    }
+                }
+            }
+            if (Boolean.TRUE.equals(valid)) {
+                return;
+            }
+            if (Boolean.FALSE.equals(valid)) {
+                execute(connection, "DROP INDEX CONCURRENTLY IF EXISTS " + index);
+            }
+            execute(connection, "CREATE INDEX CONCURRENTLY " + index + " ON " + table + " (" + columns + ")");
+        }
+
+        /**
+         * Vacuums the table once dead rows make up {@link #MAINTENANCE_RATIO} of it, or analyzes it once as many
+         * rows changed since its statistics were computed. Indexes estimated to take twice their compact size are
+         * rebuilt concurrently, from PostgreSQL 12. The estimate multiplies the number of entries by the average
+         * width of the indexed columns, as {@code pgstattuple} is rarely installed. A rebuild cancelled at the end of
+         * the maintenance window leaves an invalid copy of the index behind, which is dropped first.
+         */
+        @Override
+        public @NonNull List<String> getMaintenanceStatements(@NonNull Connection connection, @NonNull String table)
+                throws SQLException {
+            List<String> statements = new ArrayList<>();
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT n_live_tup, n_dead_tup, n_mod_since_analyze, pg_table_size(relid) "
+                            + "FROM pg_stat_user_tables WHERE relid = to_regclass(?)")) {
+                preparedStatement.setString(1, table);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        return statements;
+                    }
+                    long live = resultSet.getLong(1);
+                    long dead = resultSet.getLong(2);
+                    long modified = resultSet.getLong(3);
+                    long size = resultSet.getLong(4);
+                    long rows = live + dead;
+                    if (dead > 0
+                            && dead >= MAINTENANCE_RATIO * rows
+                            && (double) size * dead / rows >= MAINTENANCE_MIN_WASTED_BYTES) {
+                        statements.add("VACUUM (ANALYZE) " + table);
+                    } else if (modified > 0 && modified >= MAINTENANCE_RATIO * live) {
+                        statements.add("ANALYZE " + table);
+                    }
+                }
+            }
+            if (connection.getMetaData().getDatabaseMajorVersion() < 12) {
+                return statements;
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT c.relname FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid "
+                            + "WHERE i.indrelid = to_regclass(?) AND NOT i.indisvalid "
+                            + "AND c.relname LIKE '%\\_ccnew%'")) {
+                preparedStatement.setString(1, table);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        statements.add("DROP INDEX CONCURRENTLY IF EXISTS " + resultSet.getString(1));
+                    }
+                }
+            }
+            try (PreparedStatement preparedStatement = connection.prepareStatement(
+                    "SELECT c.relname, pg_relation_size(i.indexrelid), "
+                            + "c.reltuples * (12 + SUM(COALESCE(s.avg_width, 8))) / 0.9 "
+                            + "FROM pg_index i "
+                            + "JOIN pg_class c ON c.oid = i.indexrelid "
+                            + "JOIN pg_class t ON t.oid = i.indrelid "
+                            + "JOIN pg_namespace n ON n.oid = t.relnamespace "
+                            + "JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = ANY (i.indkey) "
+                            + "LEFT JOIN pg_stats s "
+                            + "ON s.schemaname = n.nspname AND s.tablename = t.relname AND s.attname = a.attname "
+                            + "WHERE i.indrelid = to_regclass(?) AND i.indisvalid AND c.reltuples >= 0 "
+                            + "GROUP BY c.relname, i.indexrelid, c.reltuples")) {
+                preparedStatement.setString(1, table);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        long size = resultSet.getLong(2);
+                        double compactSize = resultSet.getDouble(3);
+                        if (size >= 2 * compactSize && size - compactSize >= MAINTENANCE_MIN_WASTED_BYTES) {
+                            statements.add("REINDEX INDEX CONCURRENTLY " + resultSet.getString(1));
+                        }
+                    }
+                }
+            }
+            return statements;
+        }
+    }
+
+    @Extension
+    public static class MariaDb extends InnoDb {
+
+        @Override
+        public @NonNull String getName() {
+            return "mariadb";
+        }
+
+        @Override
+        public String getSchemaVersion() {
+            return SCHEMA_VERSION;
+        }
+    }
+
+    @Extension
+    public static class MySql extends InnoDb {
+
+        @Override
+        public @NonNull String getName() {
+            return "mysql";
+        }
+
+        @Override
+        public String getSchemaVersion() {
+            return SCHEMA_VERSION;
+        }
+
+        /**
+         * Connector/J only streams results row by row when the fetch size is {@link Integer#MIN_VALUE}.
+         */
+        @Override
+        public void setFetchSize(@NonNull PreparedStatement preparedStatement, int fetchSize) throws SQLException {
+            preparedStatement.setFetchSize(Integer.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Embedded H2 database stored in a file, see {@link LocalH2Database}. Fingerprints are stored without any
+     * network hop, which suits small controllers and tests.
+     */
+    @Extension
+    public static class H2 extends SqlDialect {
+
+        @Override
+        public @NonNull String getName() {
+            return "h2";
+        }
+
+        @Override
+        public String getSchemaVersion() {
+            return SCHEMA_VERSION;
+        }
+
+        @Override
+        public String getExplainPrefix(boolean analyze) {
+            return analyze ? "EXPLAIN ANALYZE " : "EXPLAIN ";
+        }
+
+        @Override
+        public boolean isApplicable(@NonNull Database database) {
+            return database instanceof LocalH2Database;
+        }
+    }
+}
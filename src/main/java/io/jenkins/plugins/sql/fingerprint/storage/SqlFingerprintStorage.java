@@ -7,204 +7,1329 @@ import hudson.Extension;
 import hudson.ExtensionList;
 import hudson.Util;
 import hudson.model.Fingerprint;
+import hudson.model.Run;
 import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import jenkins.fingerprints.FingerprintStorage;
-import jenkins.model.FingerprintFacet;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
 import org.jenkinsci.Symbol;
 import org.jenkinsci.main.modules.instance_identity.InstanceIdentity;
 import org.jenkinsci.plugins.database.Database;
 import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
-import org.json.JSONArray;
-import org.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 /**
  * Pluggable external fingerprint storage for fingerprints into SQL.
+ * <p>
+ * Fingerprints are stored in the global database, or spread over the configured {@link #getShards() shards} by a
+ * stable hash of their id.
  */
 @Extension
 public class SqlFingerprintStorage extends FingerprintStorage {
 
+    static final int DEFAULT_QUERY_TIMEOUT = 30;
+    static final int DEFAULT_MAX_CONCURRENT_OPERATIONS = 16;
+    static final int DEFAULT_ACQUIRE_TIMEOUT = 10;
+    static final int DEFAULT_MAINTENANCE_WINDOW_START = 2;
+    private static final int LOCK_STRIPES = 64;
+    static final int REPLAY_BATCH_SIZE = 100;
+    static final int CLEANUP_BATCH_SIZE = 500;
+    static final int USAGE_PAGE_SIZE = 1000;
+    static final String SPILL_FILE = "sql-fingerprint-storage/spill.log";
+
+    /**
+     * Number of days changes are kept in the change log, see {@link #getChanges(int, long, int)}.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "Accessible via System Groovy Scripts")
+    public static int CHANGE_LOG_RETENTION_DAYS =
+            SystemProperties.getInteger(SqlFingerprintStorage.class.getName() + ".changeLogRetentionDays", 30);
+
     private final String instanceId;
     private static final Logger LOGGER = Logger.getLogger(SqlFingerprintStorage.class.getName());
 
-    private transient ConnectionSupplier connectionSupplier;
+    // Settings with a default other than 0 are boxed, null meaning the default: XStream does not run field
+    // initializers when loading a configuration saved before they were added
+    private Integer queryTimeout;
+    private Integer maxConcurrentOperations;
+    private Integer acquireTimeout;
+    private List<Database> shards;
+    private boolean sharedContent;
+    private int slowOperationThreshold;
+    private int maxEagerUsages;
+    private Integer maintenanceWindowStart;
+    private int maintenanceWindowHours;
+
+    private transient ConnectionSupplier connectionSupplier;
+    private transient List<ConnectionSupplier> shardConnectionSuppliers;
+    private transient ConcurrencyLimiter concurrencyLimiter;
+    private transient volatile Object[] saveLocks;
+    private transient volatile SpillFile spillFile;
+    private transient PrefetchBuffer<Fingerprint> prefetchBuffer;
+    private transient SlowOperationLog slowOperationLog;
+    private transient Map<Fingerprint, FingerprintUsagePage> partialFingerprints;
+    private transient ExecutorService shardExecutor;
+
+    public static SqlFingerprintStorage get() {
+        return ExtensionList.lookupSingleton(SqlFingerprintStorage.class);
+    }
+
+    /**
+     * Returns the SQL storage fingerprints are written to: the configured fingerprint storage, or the one mirroring
+     * the file storage in shadow mode.
+     * @return the storage, or {@code null} if fingerprints are not stored in SQL.
+     */
+    static @CheckForNull SqlFingerprintStorage configured() {
+        FingerprintStorage storage = FingerprintStorage.get();
+        if (storage instanceof SqlFingerprintStorage) {
+            return (SqlFingerprintStorage) storage;
+        }
+        if (storage instanceof ShadowFingerprintStorage) {
+            return ((ShadowFingerprintStorage) storage).getSql();
+        }
+        return null;
+    }
+
+    @DataBoundConstructor
+    public SqlFingerprintStorage() throws IOException {
+        instanceId = Util.getDigestOf(
+                new ByteArrayInputStream(InstanceIdentity.get().getPublic().getEncoded()));
+    }
+
+    /**
+     * Returns the ID of this Jenkins instance, which owns the fingerprints it stores.
+     */
+    @NonNull
+    String getInstanceId() {
+        return instanceId;
+    }
+
+    /**
+     * Returns the supplier of connections to the global database.
+     */
+    public ConnectionSupplier getConnectionSupplier() {
+        if (connectionSupplier == null) {
+            connectionSupplier = new LocalConnectionSupplier();
+        }
+        return connectionSupplier;
+    }
+
+    /**
+     * Returns the suppliers of connections to every database holding fingerprints: one per shard, or the global
+     * database when no shard is configured.
+     */
+    synchronized List<ConnectionSupplier> getConnectionSuppliers() {
+        if (shards == null || shards.isEmpty()) {
+            return Collections.singletonList(getConnectionSupplier());
+        }
+        if (shardConnectionSuppliers == null) {
+            List<ConnectionSupplier> suppliers = new ArrayList<>(shards.size());
+            for (Database shard : shards) {
+                suppliers.add(new ShardConnectionSupplier(shard));
+            }
+            shardConnectionSuppliers = Collections.unmodifiableList(suppliers);
+        }
+        return shardConnectionSuppliers;
+    }
+
+    /**
+     * Returns the supplier of connections to the database holding the fingerprint with the given id.
+     */
+    ConnectionSupplier getConnectionSupplier(@NonNull String id) {
+        List<ConnectionSupplier> suppliers = getConnectionSuppliers();
+        return suppliers.get(shardOf(id, suppliers.size()));
+    }
+
+    /**
+     * Returns the index of the shard holding the fingerprint with the given id. The hash only depends on the id, so
+     * a fingerprint stays on the same shard as long as the number of shards does not change.
+     */
+    static int shardOf(@NonNull String id, int shards) {
+        if (shards <= 1) {
+            return 0;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(id.getBytes(StandardCharsets.UTF_8));
+        return (int) (crc.getValue() % shards);
+    }
+
+    /**
+     * Returns the databases fingerprints are distributed over, empty when fingerprints are stored in the global
+     * database.
+     */
+    public @NonNull List<Database> getShards() {
+        return shards == null ? Collections.emptyList() : Collections.unmodifiableList(shards);
+    }
+
+    @DataBoundSetter
+    public synchronized void setShards(@CheckForNull List<Database> shards) {
+        this.shards = shards == null || shards.isEmpty() ? null : new ArrayList<>(shards);
+        this.shardConnectionSuppliers = null;
+    }
+
+    /**
+     * Returns the timeout in seconds applied to every statement, {@code 0} meaning no timeout.
+     */
+    public int getQueryTimeout() {
+        return queryTimeout == null ? DEFAULT_QUERY_TIMEOUT : queryTimeout;
+    }
+
+    @DataBoundSetter
+    public void setQueryTimeout(int queryTimeout) {
+        this.queryTimeout = Math.max(0, queryTimeout);
+    }
+
+    /**
+     * Returns the upper bound of fingerprint operations running concurrently against the database, {@code 0}
+     * meaning no limit.
+     */
+    public int getMaxConcurrentOperations() {
+        return maxConcurrentOperations == null ? DEFAULT_MAX_CONCURRENT_OPERATIONS : maxConcurrentOperations;
+    }
+
+    @DataBoundSetter
+    public synchronized void setMaxConcurrentOperations(int maxConcurrentOperations) {
+        this.maxConcurrentOperations = Math.max(0, maxConcurrentOperations);
+        this.concurrencyLimiter = null;
+    }
+
+    /**
+     * Returns how long in seconds an operation waits for one of the {@link #getMaxConcurrentOperations()} slots
+     * before failing.
+     */
+    public int getAcquireTimeout() {
+        return acquireTimeout == null ? DEFAULT_ACQUIRE_TIMEOUT : acquireTimeout;
+    }
+
+    @DataBoundSetter
+    public void setAcquireTimeout(int acquireTimeout) {
+        this.acquireTimeout = Math.max(0, acquireTimeout);
+    }
+
+    /**
+     * Returns whether fingerprints identical on several instances sharing the database store their file name,
+     * timestamp and original build once, in {@code FINGERPRINT_CONTENT}, instead of once per instance.
+     */
+    public boolean isSharedContent() {
+        return sharedContent;
+    }
+
+    @DataBoundSetter
+    public void setSharedContent(boolean sharedContent) {
+        this.sharedContent = sharedContent;
+    }
+
+    /**
+     * Returns the duration in milliseconds above which statements are recorded in the {@link SlowOperationLog},
+     * {@code 0}, the default, meaning statements are not timed. Timed statements are wrapped to record their
+     * parameters, which costs an allocation per parameter bound.
+     */
+    public int getSlowOperationThreshold() {
+        return slowOperationThreshold;
+    }
+
+    @DataBoundSetter
+    public void setSlowOperationThreshold(int slowOperationThreshold) {
+        this.slowOperationThreshold = Math.max(0, slowOperationThreshold);
+    }
+
+    /**
+     * Returns the maximum number of usages read by {@link #load(String)}, {@code 0} meaning every usage is read. The
+     * other usages of a fingerprint loaded partially are read with
+     * {@link #getUsages(String, FingerprintUsagePage, int)}, and added to the fingerprint one page at a time before it
+     * is saved.
+     */
+    public int getMaxEagerUsages() {
+        return maxEagerUsages;
+    }
+
+    @DataBoundSetter
+    public void setMaxEagerUsages(int maxEagerUsages) {
+        this.maxEagerUsages = Math.max(0, maxEagerUsages);
+    }
+
+    /**
+     * Returns the hour of the day, in the time zone of the controller, at which the {@link MaintenanceWork} may start
+     * compacting the tables and refreshing their statistics.
+     */
+    public int getMaintenanceWindowStart() {
+        return maintenanceWindowStart == null ? DEFAULT_MAINTENANCE_WINDOW_START : maintenanceWindowStart;
+    }
+
+    @DataBoundSetter
+    public void setMaintenanceWindowStart(int maintenanceWindowStart) {
+        this.maintenanceWindowStart = Math.floorMod(maintenanceWindowStart, 24);
+    }
+
+    /**
+     * Returns the number of hours the maintenance window lasts, {@code 0} meaning the tables are not maintained.
+     */
+    public int getMaintenanceWindowHours() {
+        return maintenanceWindowHours;
+    }
+
+    @DataBoundSetter
+    public void setMaintenanceWindowHours(int maintenanceWindowHours) {
+        this.maintenanceWindowHours = Math.max(0, Math.min(24, maintenanceWindowHours));
+    }
+
+    public synchronized @NonNull SlowOperationLog getSlowOperationLog() {
+        if (slowOperationLog == null) {
+            slowOperationLog = new SlowOperationLog(this);
+        }
+        return slowOperationLog;
+    }
+
+    synchronized @CheckForNull ConcurrencyLimiter getConcurrencyLimiter() {
+        int _maxConcurrentOperations = getMaxConcurrentOperations();
+        if (concurrencyLimiter == null && _maxConcurrentOperations > 0) {
+            concurrencyLimiter = new ConcurrencyLimiter(_maxConcurrentOperations, _maxConcurrentOperations * 4);
+        }
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Waits for the {@link ConcurrencyLimiter} to let one more operation through.
+     * @return the permit to close once the operation completes, or {@code null} if operations are not limited.
+     * @throws IOException if the operation was rejected because too many operations are already running.
+     */
+    private @CheckForNull ConcurrencyLimiter.Permit acquirePermit(String operation, String id) throws IOException {
+        ConcurrencyLimiter limiter = getConcurrencyLimiter();
+        if (limiter == null) {
+            return null;
+        }
+        try {
+            ConcurrencyLimiter.Permit permit = limiter.acquire(getAcquireTimeout(), TimeUnit.SECONDS);
+            if (permit == null) {
+                throw new IOException("SQL Storage rejected " + operation + " of fingerprint " + id + ": "
+                        + limiter.getInFlight() + " operations already running against the database (limit "
+                        + limiter.getLimit() + ")");
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to " + operation + " fingerprint " + id, e);
+        }
+    }
+
+    private static void recordSuccess(@CheckForNull ConcurrencyLimiter.Permit permit) {
+        if (permit != null) {
+            permit.succeeded();
+        }
+    }
+
+    /**
+     * Records the outcome of the operation: statements cancelled by the {@link #getQueryTimeout() query timeout}
+     * mean the database is overloaded and shrink the {@link ConcurrencyLimiter}, lost connections count towards
+     * opening the {@link CircuitBreaker} of the database.
+     */
+    private static void recordFailure(
+            @CheckForNull ConcurrencyLimiter.Permit permit, @NonNull ConnectionSupplier supplier, SQLException e) {
+        if (permit != null && e instanceof SQLTimeoutException) {
+            permit.dropped();
+        }
+        if (isUnavailable(e) && !(e instanceof ConnectionSupplier.UnavailableException)) {
+            supplier.getCircuitBreaker().recordFailure();
+        }
+    }
+
+    /**
+     * Returns the monitor serializing saves of the same fingerprint, saves of different fingerprints run in
+     * parallel.
+     */
+    private Object saveLock(@NonNull String id) {
+        Object[] locks = saveLocks;
+        if (locks == null) {
+            synchronized (this) {
+                if (saveLocks == null) {
+                    Object[] _locks = new Object[LOCK_STRIPES];
+                    for (int i = 0; i < _locks.length; i++) {
+                        _locks[i] = new Object();
+                    }
+                    saveLocks = _locks;
+                }
+                locks = saveLocks;
+            }
+        }
+        return locks[Math.floorMod(id.hashCode(), locks.length)];
+    }
+
+    /**
+     * Prepares the given query in the dialect of the database with the configured
+     * {@link #getQueryTimeout() query timeout}, the driver cancels the statement once it elapses. Executions
+     * exceeding the {@link #getSlowOperationThreshold() slow operation threshold} are recorded in the
+     * {@link SlowOperationLog}.
+     */
+    PreparedStatement prepareStatement(
+            @NonNull ConnectionSupplier supplier, @NonNull Connection connection, @NonNull String query)
+            throws SQLException {
+        String sql = supplier.getDialect().getQuery(query);
+        PreparedStatement preparedStatement = connection.prepareStatement(sql);
+        int _queryTimeout = getQueryTimeout();
+        if (_queryTimeout > 0) {
+            preparedStatement.setQueryTimeout(_queryTimeout);
+        }
+        if (slowOperationThreshold > 0) {
+            long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowOperationThreshold);
+            preparedStatement = getSlowOperationLog().monitor(preparedStatement, supplier, query, sql, thresholdNanos);
+        }
+        return preparedStatement;
+    }
+
+    /**
+     * Saves the given fingerprint inside the PostgreSQL instance. While the database is unavailable the fingerprint
+     * is written to the {@link SpillFile} and saved to the database once it is back, see {@link #replaySpill}.
+     */
+    public void save(@NonNull Fingerprint fingerprint) throws IOException {
+        String id = fingerprint.getHashString();
+        synchronized (saveLock(id)) {
+            try {
+                saveToDatabase(fingerprint);
+                getSpillFile().supersede(id);
+            } catch (SQLException e) {
+                if (!isUnavailable(e)) {
+                    LOGGER.log(Level.WARNING, "SQL Storage failed in saving fingerprint: " + fingerprint.toString(), e);
+                    throw new IOException(e);
+                }
+                if (getEagerUsages(fingerprint) != null) {
+                    // Replaying the spilled fingerprint would drop the usages which were not loaded
+                    throw new IOException("Database unavailable, cannot spill fingerprint " + id
+                            + " whose usages are partially loaded", e);
+                }
+                LOGGER.log(Level.FINE, "Database unavailable, spilling fingerprint " + id, e);
+                getSpillFile().appendSave(id, XStreamHandler.getXStream().toXML(fingerprint));
+            }
+        }
+    }
+
+    private void saveToDatabase(@NonNull Fingerprint fingerprint) throws IOException, SQLException {
+        String id = fingerprint.getHashString();
+        ConnectionSupplier supplier = getConnectionSupplier(id);
+        StorageEvents.SaveEvent event = new StorageEvents.SaveEvent();
+        event.begin();
+        event.fingerprintId = id;
+        long start = System.nanoTime();
+
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("save", id)) {
+            try (Connection connection = supplier.connection()) {
+                event.connected(start);
+                event.dialect = supplier.getDatabaseType();
+                connection.setAutoCommit(false);
+                save(fingerprint, supplier, connection, event);
+                logChange(id, FingerprintChange.Type.SAVE, supplier, connection);
+                connection.commit();
+                recordSuccess(permit);
+                event.succeeded = true;
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                throw e;
+            }
+        } finally {
+            getPrefetchBuffer().invalidate(id);
+            event.complete(start);
+        }
+    }
+
+    private void save(
+            @NonNull Fingerprint fingerprint,
+            @NonNull ConnectionSupplier supplier,
+            @NonNull Connection connection,
+            @NonNull StorageEvents.SaveEvent event)
+            throws SQLException {
+        completeUsages(fingerprint, supplier, connection);
+        Map<String, Integer> previousUsages = readJobUsageCounts(fingerprint.getHashString(), supplier, connection);
+        delete(fingerprint.getHashString(), supplier, connection);
+
+        boolean shared = sharedContent
+                && supplier.isMigrationComplete(OnlineMigration.CONTENT_INDEX)
+                && shareContent(fingerprint, supplier, connection);
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT)) {
+            preparedStatement.setString(1, fingerprint.getHashString());
+            preparedStatement.setString(2, instanceId);
+            if (shared) {
+                preparedStatement.setNull(3, Types.NULL);
+                preparedStatement.setNull(4, Types.NULL);
+                preparedStatement.setNull(5, Types.NULL);
+                preparedStatement.setNull(6, Types.NULL);
+                preparedStatement.setString(7, fingerprint.getHashString());
+            } else {
+                setContent(preparedStatement, 3, fingerprint);
+                preparedStatement.setNull(7, Types.NULL);
+            }
+
+            preparedStatement.executeUpdate();
+        }
+
+        long conversionStart = System.nanoTime();
+        Map<String, List<Integer>> usageRows = DataConversion.toUsageRows(fingerprint);
+        List<DataConversion.FacetEntry> facetEntries = DataConversion.toFacetEntries(fingerprint);
+        event.conversionDuration += System.nanoTime() - conversionStart;
+
+        Map<String, Integer> currentUsages = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> usage : usageRows.entrySet()) {
+            String jobName = usage.getKey();
+            for (int buildNumber : usage.getValue()) {
+                try (PreparedStatement preparedStatement =
+                        prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_JOB_BUILD_RELATION)) {
+                    preparedStatement.setString(1, fingerprint.getHashString());
+                    preparedStatement.setString(2, instanceId);
+                    preparedStatement.setString(3, jobName);
+                    preparedStatement.setInt(4, buildNumber);
+                    preparedStatement.executeUpdate();
+                }
+                currentUsages.merge(jobName, 1, Integer::sum);
+                event.usageRows++;
+            }
+        }
+        updateJobSummaries(previousUsages, currentUsages, supplier, connection);
+
+        for (DataConversion.FacetEntry facetEntry : facetEntries) {
+            try (PreparedStatement preparedStatement =
+                    prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_FACET_RELATION)) {
+                preparedStatement.setString(1, fingerprint.getHashString());
+                preparedStatement.setString(2, instanceId);
+                preparedStatement.setString(3, facetEntry.name);
+                supplier.getDialect().setJson(preparedStatement, 4, facetEntry.entry);
+                preparedStatement.setBoolean(5, facetEntry.deletionBlocked);
+
+                preparedStatement.executeUpdate();
+            }
+            event.facetRows++;
+            event.facetBytes += facetEntry.entry.length();
+        }
+    }
+
+    /**
+     * Binds the timestamp, file name and original build of the fingerprint to four parameters starting at the given
+     * index.
+     */
+    private static void setContent(
+            @NonNull PreparedStatement preparedStatement, int index, @NonNull Fingerprint fingerprint)
+            throws SQLException {
+        preparedStatement.setTimestamp(index, new Timestamp(fingerprint.getTimestamp().getTime()));
+        preparedStatement.setString(index + 1, fingerprint.getFileName());
+
+        Fingerprint.BuildPtr original = fingerprint.getOriginal();
+        if (original != null) {
+            preparedStatement.setString(index + 2, original.getName());
+            preparedStatement.setInt(index + 3, original.getNumber());
+        } else {
+            preparedStatement.setNull(index + 2, Types.NULL);
+            preparedStatement.setNull(index + 3, Types.NULL);
+        }
+    }
+
+    /**
+     * Stores the content of the fingerprint in {@code FINGERPRINT_CONTENT} unless another instance already did.
+     * @return whether the shared content matches the fingerprint, in which case the fingerprint references it
+     * instead of storing its own copy.
+     */
+    private boolean shareContent(
+            @NonNull Fingerprint fingerprint, @NonNull ConnectionSupplier supplier, @NonNull Connection connection)
+            throws SQLException {
+        String id = fingerprint.getHashString();
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_CONTENT)) {
+            preparedStatement.setString(1, id);
+            setContent(preparedStatement, 2, fingerprint);
+            preparedStatement.executeUpdate();
+        } catch (SQLException e) {
+            String sqlState = e.getSQLState();
+            if (sqlState == null || !sqlState.startsWith("23")) {
+                throw e;
+            }
+            // Inserted concurrently by another instance sharing the database
+        }
+
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_CONTENT)) {
+            preparedStatement.setString(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return false;
+                }
+                if (resultSet.getTimestamp(ColumnName.TIMESTAMP).getTime() != fingerprint.getTimestamp().getTime()
+                        || !fingerprint.getFileName().equals(resultSet.getString(ColumnName.FILENAME))) {
+                    return false;
+                }
+                String originalJobName = resultSet.getString(ColumnName.ORIGINAL_JOB_NAME);
+                int originalBuildNumber = resultSet.getInt(ColumnName.ORIGINAL_JOB_BUILD_NUMBER);
+                Fingerprint.BuildPtr original = fingerprint.getOriginal();
+                if (original == null) {
+                    return originalJobName == null;
+                }
+                return original.getName().equals(originalJobName) && original.getNumber() == originalBuildNumber;
+            }
+        }
+    }
+
+    /**
+     * Deletes the shared content of the fingerprint once no instance references it anymore. Runs after the deletion
+     * committed, the content stays if another instance started referencing it concurrently.
+     */
+    private void deleteUnusedContent(
+            @NonNull String id, @NonNull ConnectionSupplier supplier, @NonNull Connection connection)
+            throws SQLException {
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.DELETE_UNUSED_FINGERPRINT_CONTENT)) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, id);
+            preparedStatement.executeUpdate();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            String sqlState = e.getSQLState();
+            if (sqlState == null || !sqlState.startsWith("23")) {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Returns the fingerprint associated with the given unique id and the Jenkins instance ID, from the PostgreSQL
+     * instance. At most {@link #getMaxEagerUsages()} usages are read when it is set.
+     */
+    public @CheckForNull Fingerprint load(@NonNull String id) throws IOException {
+        SpillFile.Record pending = getSpillFile().pending(id);
+        if (pending != null) {
+            return pending.isDelete() ? null : (Fingerprint) XStreamHandler.getXStream().fromXML(pending.payload);
+        }
+        Fingerprint prefetched = getPrefetchBuffer().get(id);
+        if (prefetched != null) {
+            return prefetched;
+        }
+
+        ConnectionSupplier supplier = getConnectionSupplier(id);
+        StorageEvents.LoadEvent event = new StorageEvents.LoadEvent();
+        event.begin();
+        event.fingerprintId = id;
+        long start = System.nanoTime();
+
+        int eagerUsages = maxEagerUsages;
+        String query = eagerUsages > 0 ? Queries.SELECT_FINGERPRINT_WITHOUT_USAGES : Queries.SELECT_FINGERPRINT;
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("load", id)) {
+            try (Connection connection = supplier.connection();
+                    PreparedStatement preparedStatement = prepareStatement(supplier, connection, query)) {
+                event.connected(start);
+                event.dialect = supplier.getDatabaseType();
+
+                preparedStatement.setString(1, id);
+                preparedStatement.setString(2, instanceId);
+
+                Fingerprint fingerprint;
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    if (!resultSet.next()) {
+                        recordSuccess(permit);
+                        event.succeeded = true;
+                        return null;
+                    }
+                    event.found = true;
+                    fingerprint = toFingerprint(id, resultSet, event);
+                }
+                if (eagerUsages > 0) {
+                    FingerprintUsagePage page = readUsages(id, null, eagerUsages, supplier, connection);
+                    addUsages(fingerprint, page);
+                    event.usageRows += page.size();
+                    if (!page.isLast()) {
+                        partialFingerprints().put(fingerprint, page);
+                    }
+                }
+                recordSuccess(permit);
+                event.succeeded = true;
+                return fingerprint;
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                LOGGER.log(
+                        e instanceof ConnectionSupplier.UnavailableException ? Level.FINE : Level.WARNING,
+                        "SQL Storage failed in loading fingerprint: " + id,
+                        e);
+                throw new IOException(e);
+            }
+        } finally {
+            event.complete(start);
+        }
+    }
+
+    /**
+     * Returns the usages of the given fingerprint following the given page, ordered by job and build number, so that
+     * fingerprints used by many builds can be read with bounded memory. Pages are read by key from the primary key
+     * of the usages, so reading the following page costs the same whatever the number of pages before it. A
+     * fingerprint saved between two pages may be read partly before and partly after the save.
+     *
+     * @param previous the page read last, {@code null} to start with the first usage, or the usages
+     * {@link #getEagerUsages(Fingerprint) loaded with the fingerprint} to read the others.
+     * @param limit maximum number of usages to return.
+     */
+    public @NonNull FingerprintUsagePage getUsages(
+            @NonNull String id, @CheckForNull FingerprintUsagePage previous, int limit) throws IOException {
+        if (previous != null && !previous.getFingerprintId().equals(id)) {
+            throw new IllegalArgumentException(
+                    "Page of fingerprint " + previous.getFingerprintId() + " given for fingerprint " + id);
+        }
+        ConnectionSupplier supplier = getConnectionSupplier(id);
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("load", id)) {
+            try (Connection connection = supplier.connection()) {
+                FingerprintUsagePage page = readUsages(id, previous, limit, supplier, connection);
+                recordSuccess(permit);
+                return page;
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                LOGGER.log(Level.WARNING, "SQL Storage failed in reading the usages of fingerprint " + id, e);
+                throw new IOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the usages read by {@link #load(String)} with the given fingerprint if it has more than
+     * {@link #getMaxEagerUsages()}, to pass to {@link #getUsages(String, FingerprintUsagePage, int)} to read the
+     * others.
+     * @return the usages loaded, or {@code null} if every usage of the fingerprint was loaded.
+     */
+    public @CheckForNull FingerprintUsagePage getEagerUsages(@NonNull Fingerprint fingerprint) {
+        return partialFingerprints().get(fingerprint);
+    }
+
+    /**
+     * Adds the usages which were not loaded to the given fingerprint, if it was loaded partially.
+     */
+    void completeUsages(@NonNull Fingerprint fingerprint) throws IOException {
+        if (getEagerUsages(fingerprint) == null) {
+            return;
+        }
+        ConnectionSupplier supplier = getConnectionSupplier(fingerprint.getHashString());
+        try (Connection connection = supplier.connection()) {
+            completeUsages(fingerprint, supplier, connection);
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void completeUsages(
+            @NonNull Fingerprint fingerprint, @NonNull ConnectionSupplier supplier, @NonNull Connection connection)
+            throws SQLException {
+        FingerprintUsagePage page = getEagerUsages(fingerprint);
+        if (page == null) {
+            return;
+        }
+        do {
+            page = readUsages(fingerprint.getHashString(), page, USAGE_PAGE_SIZE, supplier, connection);
+            addUsages(fingerprint, page);
+        } while (!page.isLast());
+        partialFingerprints().remove(fingerprint);
+    }
+
+    private FingerprintUsagePage readUsages(
+            @NonNull String id,
+            @CheckForNull FingerprintUsagePage previous,
+            int limit,
+            @NonNull ConnectionSupplier supplier,
+            @NonNull Connection connection)
+            throws SQLException {
+        FingerprintUsagePage page = new FingerprintUsagePage(id, previous, limit);
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_USAGES_PAGE)) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, instanceId);
+            preparedStatement.setString(3, page.getLastJob());
+            preparedStatement.setString(4, page.getLastJob());
+            preparedStatement.setInt(5, page.getLastBuild());
+            preparedStatement.setInt(6, limit);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    page.add(resultSet.getString(ColumnName.JOB), resultSet.getInt(ColumnName.BUILD_NUMBER));
+                }
+            }
+        }
+        return page;
+    }
+
+    private static void addUsages(@NonNull Fingerprint fingerprint, @NonNull FingerprintUsagePage page) {
+        for (Map.Entry<String, Fingerprint.RangeSet> usage : page.getUsages().entrySet()) {
+            for (int build : usage.getValue().listNumbers()) {
+                fingerprint.addWithoutSaving(usage.getKey(), build);
+            }
+        }
+    }
+
+    /**
+     * Returns the fingerprints loaded partially, with the usages loaded, held weakly like the fingerprints cached by
+     * Jenkins.
+     */
+    private synchronized Map<Fingerprint, FingerprintUsagePage> partialFingerprints() {
+        if (partialFingerprints == null) {
+            partialFingerprints = Collections.synchronizedMap(new WeakHashMap<>());
+        }
+        return partialFingerprints;
+    }
+
+    /**
+     * Reads every fingerprint used by the given build in one query per shard and keeps them in a short-lived
+     * {@link PrefetchBuffer}, so that the {@link #load(String)} calls following the prefetch, like the ones rendering
+     * the fingerprints of the build, do not query the database one fingerprint at a time.
+     * <p>
+     * Shards are skipped until the online migration {@link OnlineMigration#JOB_BUILD_INDEX} built the index of usages
+     * by build, without it the query scans every usage.
+     * @return the number of fingerprints prefetched.
+     */
+    public int prefetch(@NonNull String job, int build) throws IOException {
+        PrefetchBuffer<Fingerprint> buffer = getPrefetchBuffer();
+        if (buffer.isPrefetched(job, build)) {
+            return 0;
+        }
+        long token = buffer.begin();
+        Map<String, Fingerprint> fingerprints = new HashMap<>();
+        try {
+            for (Map<String, Fingerprint> shard : forEachShard(supplier -> prefetch(supplier, job, build))) {
+                fingerprints.putAll(shard);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while prefetching the fingerprints of " + job + " #" + build, e);
+        }
+        buffer.put(job, build, fingerprints, token);
+        return fingerprints.size();
+    }
+
+    /**
+     * Prefetches the fingerprints used by the given build, see {@link #prefetch(String, int)}.
+     */
+    public int prefetch(@NonNull Run<?, ?> run) throws IOException {
+        return prefetch(run.getParent().getFullName(), run.getNumber());
+    }
+
+    private Map<String, Fingerprint> prefetch(@NonNull ConnectionSupplier supplier, @NonNull String job, int build)
+            throws IOException {
+        if (!supplier.isMigrationComplete(OnlineMigration.JOB_BUILD_INDEX)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Fingerprint> fingerprints = new HashMap<>();
+        StorageEvents.PrefetchEvent event = new StorageEvents.PrefetchEvent();
+        event.begin();
+        event.job = job;
+        event.build = build;
+        long start = System.nanoTime();
+
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("prefetch", job + " #" + build)) {
+            try (Connection connection = supplier.connection();
+                    PreparedStatement preparedStatement =
+                            prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINTS_FOR_BUILD)) {
+                event.connected(start);
+                event.dialect = supplier.getDatabaseType();
+                // The fingerprints, their usages and their facets are each restricted to the usages of the build
+                for (int i = 0; i < 12; i += 4) {
+                    preparedStatement.setString(i + 1, instanceId);
+                    preparedStatement.setString(i + 2, instanceId);
+                    preparedStatement.setString(i + 3, job);
+                    preparedStatement.setInt(i + 4, build);
+                }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String id = resultSet.getString(ColumnName.FINGERPRINT_ID);
+                        fingerprints.put(id, toFingerprint(id, resultSet, event));
+                    }
+                }
+                recordSuccess(permit);
+                event.fingerprints = fingerprints.size();
+                event.found = !fingerprints.isEmpty();
+                event.succeeded = true;
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                LOGGER.log(
+                        Level.FINE, "SQL Storage failed in prefetching the fingerprints of " + job + " #" + build, e);
+                throw new IOException(e);
+            }
+        } finally {
+            event.complete(start);
+        }
+        return fingerprints;
+    }
+
+    private static @NonNull Fingerprint toFingerprint(
+            @NonNull String id, @NonNull ResultSet resultSet, @NonNull StorageEvents.LoadEvent event)
+            throws SQLException {
+        Timestamp timestamp = resultSet.getTimestamp(ColumnName.TIMESTAMP);
+        String filename = resultSet.getString(ColumnName.FILENAME);
+        String originalJobName = resultSet.getString(ColumnName.ORIGINAL_JOB_NAME);
+        String originalJobBuildNumber = resultSet.getString(ColumnName.ORIGINAL_JOB_BUILD_NUMBER);
+        String usagesAsJSONString = resultSet.getString(ColumnName.USAGES);
+        String facetsAsJSONString = resultSet.getString(ColumnName.FACETS);
+
+        long conversionStart = System.nanoTime();
+        Fingerprint fingerprint = DataConversion.toFingerprint(
+                id,
+                timestamp,
+                filename,
+                originalJobName,
+                originalJobBuildNumber,
+                usagesAsJSONString,
+                facetsAsJSONString);
+        event.conversionDuration += System.nanoTime() - conversionStart;
+
+        if (event.isEnabled()) {
+            Hashtable<String, Fingerprint.RangeSet> usages = fingerprint.getUsages();
+            if (usages != null) {
+                for (Fingerprint.RangeSet rangeSet : usages.values()) {
+                    event.usageRows += rangeSet.listNumbers().size();
+                }
+            }
+            event.facetBytes += facetsAsJSONString == null ? 0 : facetsAsJSONString.length();
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Deletes the fingerprint with the given id from the PostgreSQL instance. While the database is unavailable the
+     * deletion is written to the {@link SpillFile}.
+     */
+    public void delete(@NonNull String id) throws IOException {
+        synchronized (saveLock(id)) {
+            try {
+                deleteFromDatabase(id);
+                getSpillFile().supersede(id);
+            } catch (SQLException e) {
+                if (!isUnavailable(e)) {
+                    LOGGER.log(Level.WARNING, "SQL Storage failed in deleting fingerprint: " + id, e);
+                    throw new IOException(e);
+                }
+                LOGGER.log(Level.FINE, "Database unavailable, spilling deletion of fingerprint " + id, e);
+                getSpillFile().appendDelete(id);
+            }
+        }
+    }
+
+    private void deleteFromDatabase(@NonNull String id) throws IOException, SQLException {
+        ConnectionSupplier supplier = getConnectionSupplier(id);
+        StorageEvents.DeleteEvent event = new StorageEvents.DeleteEvent();
+        event.begin();
+        event.fingerprintId = id;
+        long start = System.nanoTime();
 
-    public static SqlFingerprintStorage get() {
-        return ExtensionList.lookupSingleton(SqlFingerprintStorage.class);
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("delete", id)) {
+            try (Connection connection = supplier.connection()) {
+                event.connected(start);
+                event.dialect = supplier.getDatabaseType();
+                connection.setAutoCommit(false);
+                Map<String, Integer> previousUsages = readJobUsageCounts(id, supplier, connection);
+                event.deletedRows = delete(id, supplier, connection);
+                if (event.deletedRows > 0) {
+                    updateJobSummaries(previousUsages, Collections.emptyMap(), supplier, connection);
+                    logChange(id, FingerprintChange.Type.DELETE, supplier, connection);
+                }
+                connection.commit();
+                if (event.deletedRows > 0
+                        && sharedContent
+                        && supplier.isMigrationComplete(OnlineMigration.CONTENT_INDEX)) {
+                    deleteUnusedContent(id, supplier, connection);
+                }
+                recordSuccess(permit);
+                event.succeeded = true;
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                throw e;
+            }
+        } finally {
+            getPrefetchBuffer().invalidate(id);
+            event.complete(start);
+        }
     }
 
-    @DataBoundConstructor
-    public SqlFingerprintStorage() throws IOException {
-        instanceId = Util.getDigestOf(
-                new ByteArrayInputStream(InstanceIdentity.get().getPublic().getEncoded()));
+    private int delete(@NonNull String id, @NonNull ConnectionSupplier supplier, @NonNull Connection connection)
+            throws SQLException {
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.DELETE_FINGERPRINT)) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, instanceId);
+            return preparedStatement.executeUpdate();
+        }
     }
 
-    public ConnectionSupplier getConnectionSupplier() {
-        if (connectionSupplier == null) {
-            connectionSupplier = new LocalConnectionSupplier();
+    /**
+     * Returns the number of builds of each job using the fingerprint, as stored in the database.
+     */
+    private Map<String, Integer> readJobUsageCounts(
+            @NonNull String id, @NonNull ConnectionSupplier supplier, @NonNull Connection connection)
+            throws SQLException {
+        Map<String, Integer> counts = new HashMap<>();
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_JOB_USAGE_COUNTS)) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, instanceId);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    counts.put(resultSet.getString(ColumnName.JOB), resultSet.getInt(ColumnName.USAGE_COUNT));
+                }
+            }
         }
-        return connectionSupplier;
+        return counts;
     }
 
-    private String getDatabaseType() {
-        return getConnectionSupplier()
-                .database()
-                .getDescriptor()
-                .getDisplayName()
-                .toLowerCase();
+    /**
+     * Applies the change of the usages of a fingerprint to the summaries of the jobs, in the transaction of the
+     * change itself. Jobs are updated in order so that concurrent changes do not deadlock.
+     */
+    private void updateJobSummaries(
+            @NonNull Map<String, Integer> previousUsages,
+            @NonNull Map<String, Integer> currentUsages,
+            @NonNull ConnectionSupplier supplier,
+            @NonNull Connection connection)
+            throws SQLException {
+        Set<String> jobs = new TreeSet<>(previousUsages.keySet());
+        jobs.addAll(currentUsages.keySet());
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.UPSERT_FINGERPRINT_JOB_SUMMARY)) {
+            boolean changed = false;
+            for (String job : jobs) {
+                int previous = previousUsages.getOrDefault(job, 0);
+                int current = currentUsages.getOrDefault(job, 0);
+                if (previous == current) {
+                    continue;
+                }
+                preparedStatement.setString(1, instanceId);
+                preparedStatement.setString(2, job);
+                preparedStatement.setLong(3, (current > 0 ? 1 : 0) - (previous > 0 ? 1 : 0));
+                preparedStatement.setLong(4, current - previous);
+                preparedStatement.setTimestamp(5, now);
+                preparedStatement.addBatch();
+                changed = true;
+            }
+            if (changed) {
+                preparedStatement.executeBatch();
+            }
+        }
     }
 
     /**
-     * Saves the given fingerprint inside the PostgreSQL instance.
+     * Records the change in the change log, in the transaction of the change itself.
      */
-    public synchronized void save(@NonNull Fingerprint fingerprint) throws IOException {
-        try (Connection connection = getConnectionSupplier().connection()) {
-            connection.setAutoCommit(false);
-
-            delete(fingerprint.getHashString(), connection);
+    private void logChange(
+            @NonNull String id,
+            @NonNull FingerprintChange.Type type,
+            @NonNull ConnectionSupplier supplier,
+            @NonNull Connection connection)
+            throws SQLException {
+        try (PreparedStatement preparedStatement =
+                prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_CHANGE)) {
+            preparedStatement.setString(1, id);
+            preparedStatement.setString(2, instanceId);
+            preparedStatement.setString(3, type.name());
+            preparedStatement.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+            preparedStatement.executeUpdate();
+        }
+    }
 
-            try (PreparedStatement preparedStatement =
-                    connection.prepareStatement(Queries.getQuery(getDatabaseType(), Queries.INSERT_FINGERPRINT))) {
-                preparedStatement.setString(1, fingerprint.getHashString());
-                preparedStatement.setString(2, instanceId);
-                preparedStatement.setTimestamp(
-                        3, new Timestamp(fingerprint.getTimestamp().getTime()));
-                preparedStatement.setString(4, fingerprint.getFileName());
+    /**
+     * Returns the number of databases holding fingerprints, each with its own change log.
+     */
+    public int getShardCount() {
+        return getConnectionSuppliers().size();
+    }
 
-                Fingerprint.BuildPtr original = fingerprint.getOriginal();
-                if (original != null) {
-                    preparedStatement.setString(5, original.getName());
-                    preparedStatement.setInt(6, original.getNumber());
-                } else {
-                    preparedStatement.setNull(5, Types.NULL);
-                    preparedStatement.setNull(6, Types.NULL);
+    /**
+     * Returns the changes of the fingerprints of this instance stored in the given shard, following the given
+     * watermark in sequence order.
+     * <p>
+     * Sequence numbers are only comparable within a shard, consumers keep one watermark per shard. They are assigned
+     * when a change is written, so a transaction committing after a concurrent one may add a change below the
+     * watermark of a consumer which read in between. Consumers needing every change re-read a small window below
+     * their watermark, applying a change twice is harmless since it only tells which fingerprint to reload.
+     *
+     * @param shard index of the shard, from {@code 0} to {@link #getShardCount()} excluded.
+     * @param after watermark, the sequence of the last change consumed or {@code 0} to start from the beginning.
+     * @param limit maximum number of changes to return.
+     */
+    public @NonNull List<FingerprintChange> getChanges(int shard, long after, int limit) throws IOException {
+        ConnectionSupplier supplier = getConnectionSuppliers().get(shard);
+        List<FingerprintChange> changes = new ArrayList<>(Math.min(limit, CLEANUP_BATCH_SIZE));
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_CHANGES_PAGE)) {
+            preparedStatement.setString(1, instanceId);
+            preparedStatement.setLong(2, after);
+            preparedStatement.setInt(3, limit);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    changes.add(new FingerprintChange(
+                            resultSet.getLong(ColumnName.SEQUENCE_ID),
+                            resultSet.getString(ColumnName.FINGERPRINT_ID),
+                            FingerprintChange.Type.valueOf(resultSet.getString(ColumnName.CHANGE_TYPE)),
+                            resultSet.getTimestamp(ColumnName.CHANGE_TIMESTAMP).getTime()));
                 }
-
-                preparedStatement.executeUpdate();
             }
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "SQL Storage failed in reading fingerprint changes", e);
+            throw new IOException(e);
+        }
+        return changes;
+    }
 
-            Hashtable<String, Fingerprint.RangeSet> usages = fingerprint.getUsages();
-            if (usages != null) {
-                for (Map.Entry<String, Fingerprint.RangeSet> usage : usages.entrySet()) {
-                    String jobName = usage.getKey();
-                    Fingerprint.RangeSet rangeSet = usage.getValue();
-
-                    for (int buildNumber : rangeSet.listNumbers()) {
-                        try (PreparedStatement preparedStatement = connection.prepareStatement(
-                                Queries.getQuery(getDatabaseType(), Queries.INSERT_FINGERPRINT_JOB_BUILD_RELATION))) {
-                            preparedStatement.setString(1, fingerprint.getHashString());
-                            preparedStatement.setString(2, instanceId);
-                            preparedStatement.setString(3, jobName);
-                            preparedStatement.setInt(4, buildNumber);
-                            preparedStatement.executeUpdate();
-                        }
+    /**
+     * Looks up the given fingerprint in every instance sharing the database, including this one, ordered by
+     * instance ID. Lets controllers exchanging artifacts find out where an artifact came from.
+     * <p>
+     * The primary keys of the fingerprint tables lead with {@code FINGERPRINT_ID}, so the lookup is a single index
+     * probe whatever the number of instances. Instances must use the same shards for their fingerprints to be found.
+     */
+    public @NonNull List<FingerprintInstanceUsage> lookupAcrossInstances(@NonNull String id) throws IOException {
+        ConnectionSupplier supplier = getConnectionSupplier(id);
+        List<FingerprintInstanceUsage> usages = new ArrayList<>();
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("look up", id)) {
+            try (Connection connection = supplier.connection();
+                    PreparedStatement preparedStatement =
+                            prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_INSTANCES)) {
+                preparedStatement.setString(1, id);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        String instance = resultSet.getString(ColumnName.INSTANCE_ID);
+                        int originalBuildNumber = resultSet.getInt(ColumnName.ORIGINAL_JOB_BUILD_NUMBER);
+                        boolean hasOriginalBuildNumber = !resultSet.wasNull();
+                        usages.add(new FingerprintInstanceUsage(
+                                instance,
+                                instance.equals(instanceId),
+                                resultSet.getTimestamp(ColumnName.TIMESTAMP).getTime(),
+                                resultSet.getString(ColumnName.FILENAME),
+                                resultSet.getString(ColumnName.ORIGINAL_JOB_NAME),
+                                hasOriginalBuildNumber ? originalBuildNumber : null,
+                                resultSet.getInt(ColumnName.JOB_COUNT),
+                                resultSet.getInt(ColumnName.BUILD_COUNT)));
                     }
                 }
+                recordSuccess(permit);
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                LOGGER.log(
+                        Level.WARNING, "SQL Storage failed in looking up fingerprint " + id + " across instances", e);
+                throw new IOException(e);
             }
+        }
+        return usages;
+    }
 
-            for (FingerprintFacet fingerprintFacet : fingerprint.getPersistedFacets()) {
-                JSONObject fingerprintFacetJSON =
-                        new JSONObject(XStreamHandler.getXStream().toXML(fingerprintFacet));
-                String fingerprintFacetName = fingerprintFacetJSON.keys().next();
-                String fingerprintFacetEntry =
-                        fingerprintFacetJSON.getJSONObject(fingerprintFacetName).toString();
-
-                try (PreparedStatement preparedStatement = connection.prepareStatement(
-                        Queries.getQuery(getDatabaseType(), Queries.INSERT_FINGERPRINT_FACET_RELATION))) {
-                    preparedStatement.setString(1, fingerprint.getHashString());
-                    preparedStatement.setString(2, instanceId);
-                    preparedStatement.setString(3, fingerprintFacetName);
-                    preparedStatement.setString(4, fingerprintFacetEntry);
-                    preparedStatement.setBoolean(5, fingerprintFacet.isFingerprintDeletionBlocked());
-
-                    preparedStatement.executeUpdate();
+    /**
+     * Returns the number of fingerprints and usages of every job of this instance using fingerprints, ordered by job.
+     * <p>
+     * The counts are kept up to date in {@code FINGERPRINT_JOB_SUMMARY} by every save and deletion, so reading them
+     * costs one row per job instead of a scan of the usages. Until the online migration
+     * {@link OnlineMigration#JOB_SUMMARY_BACKFILL} is complete, jobs whose fingerprints were not saved since the
+     * upgrade are missing or undercounted.
+     */
+    public @NonNull List<JobUsageSummary> getJobSummaries() throws IOException {
+        Map<String, JobUsageSummary> summaries = new TreeMap<>();
+        try {
+            for (List<JobUsageSummary> shard : forEachShard(supplier -> readJobSummaries(supplier, null))) {
+                for (JobUsageSummary summary : shard) {
+                    summaries.merge(summary.getJob(), summary, JobUsageSummary::merge);
                 }
             }
-
-            connection.commit();
-        } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "SQL Storage failed in saving fingerprint: " + fingerprint.toString(), e);
-            throw new IOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the job summaries", e);
         }
+        return new ArrayList<>(summaries.values());
     }
 
     /**
-     * Returns the fingerprint associated with the given unique id and the Jenkins instance ID, from the PostgreSQL
-     * instance.
+     * Returns the number of fingerprints and usages of the given job, see {@link #getJobSummaries()}.
+     * @return the summary, or {@code null} if no build of the job uses fingerprints.
      */
-    public @CheckForNull Fingerprint load(@NonNull String id) throws IOException {
-        try (Connection connection = getConnectionSupplier().connection();
-                PreparedStatement preparedStatement =
-                        connection.prepareStatement(Queries.getQuery(getDatabaseType(), Queries.SELECT_FINGERPRINT))) {
+    public @CheckForNull JobUsageSummary getJobSummary(@NonNull String job) throws IOException {
+        JobUsageSummary summary = null;
+        try {
+            for (List<JobUsageSummary> shard : forEachShard(supplier -> readJobSummaries(supplier, job))) {
+                for (JobUsageSummary shardSummary : shard) {
+                    summary = summary == null ? shardSummary : summary.merge(shardSummary);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the summary of " + job, e);
+        }
+        return summary;
+    }
 
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, instanceId);
+    private List<JobUsageSummary> readJobSummaries(@NonNull ConnectionSupplier supplier, @CheckForNull String job)
+            throws IOException {
+        List<JobUsageSummary> summaries = new ArrayList<>();
+        String query = job == null ? Queries.SELECT_FINGERPRINT_JOB_SUMMARIES : Queries.SELECT_FINGERPRINT_JOB_SUMMARY;
+        try (ConcurrencyLimiter.Permit permit = acquirePermit("summarize", job == null ? "jobs" : job)) {
+            try (Connection connection = supplier.connection();
+                    PreparedStatement preparedStatement = prepareStatement(supplier, connection, query)) {
+                preparedStatement.setString(1, instanceId);
+                if (job != null) {
+                    preparedStatement.setString(2, job);
+                }
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        summaries.add(new JobUsageSummary(
+                                resultSet.getString(ColumnName.JOB),
+                                resultSet.getLong(ColumnName.FINGERPRINT_COUNT),
+                                resultSet.getLong(ColumnName.USAGE_COUNT),
+                                resultSet.getTimestamp(ColumnName.UPDATED).getTime()));
+                    }
+                }
+                recordSuccess(permit);
+            } catch (SQLException e) {
+                recordFailure(permit, supplier, e);
+                LOGGER.log(Level.WARNING, "SQL Storage failed in reading the job summaries", e);
+                throw new IOException(e);
+            }
+        }
+        return summaries;
+    }
 
-            try (ResultSet resultSet = preparedStatement.executeQuery()) {
-                if (!resultSet.next()) {
-                    return null;
+    /**
+     * Rebuilds the job summaries of this instance from the usages, in one transaction per shard.
+     */
+    private void rebuildJobSummaries() throws IOException {
+        try {
+            forEachShard(supplier -> {
+                try (Connection connection = supplier.connection()) {
+                    connection.setAutoCommit(false);
+                    try {
+                        for (String query : new String[] {
+                            Queries.DELETE_FINGERPRINT_JOB_SUMMARIES, Queries.REBUILD_FINGERPRINT_JOB_SUMMARIES
+                        }) {
+                            try (PreparedStatement preparedStatement = prepareStatement(supplier, connection, query)) {
+                                preparedStatement.setString(1, instanceId);
+                                preparedStatement.executeUpdate();
+                            }
+                        }
+                        connection.commit();
+                    } catch (SQLException e) {
+                        connection.rollback();
+                        throw e;
+                    }
+                } catch (SQLException e) {
+                    LOGGER.log(Level.WARNING, "SQL Storage failed in rebuilding the job summaries", e);
+                    throw new IOException(e);
                 }
+                return null;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rebuilding the job summaries", e);
+        }
+    }
 
-                Map<String, String> fingerprintMetadata = DataConversion.extractFingerprintMetadata(
-                        id,
-                        resultSet.getTimestamp(ColumnName.TIMESTAMP),
-                        resultSet.getString(ColumnName.FILENAME),
-                        resultSet.getString(ColumnName.ORIGINAL_JOB_NAME),
-                        resultSet.getString(ColumnName.ORIGINAL_JOB_BUILD_NUMBER));
-                Map<String, Fingerprint.RangeSet> usageMetadata =
-                        DataConversion.extractUsageMetadata(resultSet.getString(ColumnName.USAGES));
-                JSONArray facets = DataConversion.extractFacets(resultSet.getString(ColumnName.FACETS));
-                String json = DataConversion.constructFingerprintJSON(fingerprintMetadata, usageMetadata, facets);
-                return (Fingerprint) XStreamHandler.getXStream().fromXML(json);
-            }
+    /**
+     * Deletes the summaries of the jobs no longer using any fingerprint from the given shard.
+     */
+    private void deleteEmptyJobSummaries(@NonNull ConnectionSupplier supplier) throws IOException {
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        prepareStatement(supplier, connection, Queries.DELETE_EMPTY_FINGERPRINT_JOB_SUMMARIES)) {
+            preparedStatement.setString(1, instanceId);
+            preparedStatement.executeUpdate();
         } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "PostgreSQL failed in loading fingerprint: " + id, e);
             throw new IOException(e);
         }
     }
 
     /**
-     * Deletes the fingerprint with the given id from the PostgreSQL instance.
+     * Deletes the changes older than {@link #CHANGE_LOG_RETENTION_DAYS} from the change log of the given shard.
+     * @return the number of changes deleted.
      */
-    public void delete(@NonNull String id) throws IOException {
-        try (Connection connection = getConnectionSupplier().connection()) {
-            connection.setAutoCommit(false);
-            delete(id, connection);
-            connection.commit();
+    private int purgeChanges(@NonNull ConnectionSupplier supplier) throws IOException {
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        prepareStatement(supplier, connection, Queries.DELETE_FINGERPRINT_CHANGES_BEFORE)) {
+            preparedStatement.setString(1, instanceId);
+            preparedStatement.setTimestamp(
+                    2,
+                    new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(CHANGE_LOG_RETENTION_DAYS)));
+            return preparedStatement.executeUpdate();
         } catch (SQLException e) {
-            LOGGER.log(Level.WARNING, "PostgreSQL failed in deleting fingerprint: " + id, e);
             throw new IOException(e);
         }
     }
 
-    private void delete(@NonNull String id, @NonNull Connection connection) throws SQLException {
-        try (PreparedStatement preparedStatement =
-                connection.prepareStatement(Queries.getQuery(getDatabaseType(), Queries.DELETE_FINGERPRINT))) {
-            preparedStatement.setString(1, id);
-            preparedStatement.setString(2, instanceId);
-            preparedStatement.executeUpdate();
+    /**
+     * Writes every fingerprint of this instance to the given stream as gzip compressed NDJSON, see
+     * {@link FingerprintArchive}. The stream is not closed.
+     */
+    public @NonNull FingerprintArchive.Statistics export(@NonNull OutputStream outputStream) throws IOException {
+        return new FingerprintArchive(this).export(outputStream);
+    }
+
+    /**
+     * Imports the fingerprints written by {@link #export(OutputStream)}, possibly by another instance or from
+     * another database, as fingerprints of this instance. The stream is not closed.
+     */
+    public @NonNull FingerprintArchive.Statistics importFrom(@NonNull InputStream inputStream) throws IOException {
+        try {
+            FingerprintArchive.Statistics statistics = new FingerprintArchive(this).importFrom(inputStream);
+            rebuildJobSummaries();
+            return statistics;
+        } finally {
+            getPrefetchBuffer().clear();
         }
     }
 
     /**
-     * Returns true if there are fingerprints associate with the instance ID inside PostgreSQL instance.
+     * Returns true if there are fingerprints associate with the instance ID inside PostgreSQL instance, or inside
+     * any of the shards.
      */
     public boolean isReady() {
-        try (Connection connection = getConnectionSupplier().connection();
-                PreparedStatement preparedStatement = connection.prepareStatement(
-                        Queries.getQuery(getDatabaseType(), Queries.SELECT_FINGERPRINT_EXISTS_FOR_INSTANCE))) {
+        try {
+            for (Boolean ready : forEachShard(this::isReady)) {
+                if (ready) {
+                    return true;
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            LOGGER.log(Level.WARNING, "Failed connecting to database server for fingerprint", e);
+        }
+        return false;
+    }
+
+    private boolean isReady(@NonNull ConnectionSupplier supplier) {
+        if (supplier.getCircuitBreaker().isOpen()) {
+            LOGGER.log(Level.FINE, "Database for fingerprints is unavailable, circuit breaker is open");
+            return false;
+        }
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_EXISTS_FOR_INSTANCE)) {
             preparedStatement.setString(1, instanceId);
             try (ResultSet resultSet = preparedStatement.executeQuery()) {
                 if (resultSet.next()) {
@@ -217,9 +1342,258 @@ public class SqlFingerprintStorage extends FingerprintStorage {
         return false;
     }
 
+    /**
+     * Writes the changes spilled while the database was unavailable, in batches of {@link #REPLAY_BATCH_SIZE}.
+     * Stops at the first change which cannot be written, it is retried on the next call.
+     */
+    void replaySpill(@NonNull TaskListener taskListener) throws IOException {
+        SpillFile spill = getSpillFile();
+        long replayed = 0;
+        while (!spill.isEmpty()) {
+            List<SpillFile.Record> batch = spill.readBatch(REPLAY_BATCH_SIZE);
+            if (batch.isEmpty()) {
+                break;
+            }
+            for (SpillFile.Record record : batch) {
+                synchronized (saveLock(record.id)) {
+                    if (!spill.isLatest(record)) {
+                        continue;
+                    }
+                    if (getConnectionSupplier(record.id).getCircuitBreaker().isOpen()) {
+                        taskListener
+                                .getLogger()
+                                .println("Stopped replaying spilled fingerprints after " + replayed
+                                        + " changes: database unavailable");
+                        return;
+                    }
+                    try {
+                        if (record.isDelete()) {
+                            deleteFromDatabase(record.id);
+                        } else {
+                            saveToDatabase((Fingerprint) XStreamHandler.getXStream().fromXML(record.payload));
+                        }
+                    } catch (SQLException e) {
+                        taskListener
+                                .getLogger()
+                                .println("Stopped replaying spilled fingerprints after " + replayed + " changes: "
+                                        + e.getMessage());
+                        return;
+                    }
+                    spill.applied(record);
+                    replayed++;
+                }
+            }
+            spill.advance(batch.get(batch.size() - 1));
+        }
+        if (replayed > 0) {
+            taskListener.getLogger().println("Replayed " + replayed + " spilled fingerprint changes");
+            LOGGER.log(
+                    Level.INFO,
+                    "Replayed {0} fingerprint changes spilled while the database was unavailable",
+                    replayed);
+        }
+    }
+
+    synchronized PrefetchBuffer<Fingerprint> getPrefetchBuffer() {
+        if (prefetchBuffer == null) {
+            prefetchBuffer = new PrefetchBuffer<>();
+        }
+        return prefetchBuffer;
+    }
+
+    SpillFile getSpillFile() throws IOException {
+        SpillFile _spillFile = spillFile;
+        if (_spillFile == null) {
+            synchronized (this) {
+                if (spillFile == null) {
+                    spillFile = new SpillFile(new File(Jenkins.get().getRootDir(), SPILL_FILE));
+                }
+                _spillFile = spillFile;
+            }
+        }
+        return _spillFile;
+    }
+
+    /**
+     * Returns whether the error means the database cannot be reached, as opposed to a failing statement.
+     */
+    static boolean isUnavailable(@NonNull SQLException e) {
+        String sqlState = e.getSQLState();
+        return e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLRecoverableException
+                || (sqlState != null && sqlState.startsWith("08"));
+    }
+
+    /**
+     * Runs the given task against every database holding fingerprints, in parallel when fingerprints are sharded.
+     * @return the results of the task, in the order of {@link #getConnectionSuppliers()}.
+     */
+    <T> List<T> forEachShard(@NonNull ShardTask<T> task) throws IOException, InterruptedException {
+        List<ConnectionSupplier> suppliers = getConnectionSuppliers();
+        if (suppliers.size() == 1) {
+            return Collections.singletonList(task.run(suppliers.get(0)));
+        }
+
+        ExecutorService executor = getShardExecutor();
+        List<Future<T>> futures = new ArrayList<>(suppliers.size());
+        try {
+            for (ConnectionSupplier supplier : suppliers) {
+                Callable<T> callable = () -> task.run(supplier);
+                futures.add(executor.submit(callable));
+            }
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Returns the threads running the tasks of {@link #forEachShard(ShardTask)}, shared by every call so that
+     * operations over the shards do not start threads of their own.
+     */
+    private synchronized ExecutorService getShardExecutor() {
+        if (shardExecutor == null) {
+            shardExecutor = Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), SqlFingerprintStorage.class.getSimpleName()));
+        }
+        return shardExecutor;
+    }
+
+    /**
+     * Task run against one database by {@link #forEachShard(ShardTask)}.
+     */
+    @FunctionalInterface
+    interface ShardTask<T> {
+        T run(@NonNull ConnectionSupplier supplier) throws IOException;
+    }
+
+    /**
+     * Deletes the fingerprints of this instance which are no longer used, going through every shard in parallel. A
+     * shard failing does not stop the cleanup of the others.
+     */
     @Override
     public void iterateAndCleanupFingerprints(TaskListener taskListener) {
-        // TODO
+        StorageEvents.CleanupEvent event = new StorageEvents.CleanupEvent();
+        event.begin();
+        try {
+            for (long[] result : forEachShard(supplier -> {
+                try {
+                    return cleanup(supplier, taskListener);
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "SQL Storage failed in cleaning up fingerprints", e);
+                    taskListener.error("Failed to clean up fingerprints: " + e.getMessage());
+                    return new long[2];
+                }
+            })) {
+                event.scanned += result[0];
+                event.deleted += result[1];
+            }
+            taskListener
+                    .getLogger()
+                    .println("Cleaned up " + event.deleted + " of " + event.scanned + " fingerprints in SQL storage");
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "SQL Storage failed in cleaning up fingerprints", e);
+            taskListener.error("Failed to clean up fingerprints: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                try {
+                    event.dialect = getConnectionSuppliers().get(0).getDatabaseType();
+                } catch (SQLException e) {
+                    // The dialect only labels the event, the shards reported their own failures
+                }
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Cleans up the fingerprints stored in one database, reading their ids by pages of {@link #CLEANUP_BATCH_SIZE}.
+     * @return the number of fingerprints scanned and deleted.
+     */
+    private long[] cleanup(@NonNull ConnectionSupplier supplier, @NonNull TaskListener taskListener)
+            throws IOException {
+        long scanned = 0;
+        long deleted = 0;
+        String lastId = "";
+        while (true) {
+            List<String> ids = new ArrayList<>(CLEANUP_BATCH_SIZE);
+            try (Connection connection = supplier.connection();
+                    PreparedStatement preparedStatement =
+                            prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT_IDS_PAGE)) {
+                preparedStatement.setString(1, instanceId);
+                preparedStatement.setString(2, lastId);
+                preparedStatement.setInt(3, CLEANUP_BATCH_SIZE);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    while (resultSet.next()) {
+                        ids.add(resultSet.getString(ColumnName.FINGERPRINT_ID));
+                    }
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+
+            for (String id : ids) {
+                Fingerprint fingerprint = Fingerprint.load(id);
+                scanned++;
+                if (fingerprint == null) {
+                    continue;
+                }
+                // Whether the fingerprint is still used depends on every usage, not only those loaded eagerly
+                completeUsages(fingerprint);
+                if (cleanFingerprint(fingerprint, taskListener)) {
+                    deleted++;
+                }
+            }
+            if (ids.size() < CLEANUP_BATCH_SIZE) {
+                cleanupTables(supplier, taskListener);
+                return new long[] {scanned, deleted};
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+    }
+
+    /**
+     * Deletes the summaries of the jobs no longer using fingerprints and the expired changes of every shard, without
+     * going through the fingerprints. Used when the fingerprints themselves are cleaned up by another storage, see
+     * {@link ShadowFingerprintStorage}.
+     */
+    void cleanupTables(@NonNull TaskListener taskListener) {
+        try {
+            forEachShard(supplier -> {
+                cleanupTables(supplier, taskListener);
+                return null;
+            });
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "SQL Storage failed in cleaning up fingerprint tables", e);
+            taskListener.error("Failed to clean up fingerprint tables: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cleanupTables(@NonNull ConnectionSupplier supplier, @NonNull TaskListener taskListener)
+            throws IOException {
+        deleteEmptyJobSummaries(supplier);
+        int purged = purgeChanges(supplier);
+        if (purged > 0) {
+            taskListener.getLogger().println("Purged " + purged + " fingerprint changes from the change log");
+        }
     }
 
     static class LocalConnectionSupplier extends ConnectionSupplier {
@@ -227,43 +1601,169 @@ public class SqlFingerprintStorage extends FingerprintStorage {
         protected Database database() {
             return GlobalDatabaseConfiguration.get().getDatabase();
         }
+    }
+
+    /**
+     * Supplies connections to one of the {@link #getShards() shards}.
+     */
+    static class ShardConnectionSupplier extends ConnectionSupplier {
+
+        private final Database database;
+
+        ShardConnectionSupplier(@NonNull Database database) {
+            this.database = database;
+        }
 
         @Override
-        protected void initialize(Connection connection) throws SQLException {
-            if (!DatabaseSchemaLoader.MIGRATED) {
-                DatabaseSchemaLoader.migrateSchema();
-            }
+        protected Database database() {
+            return database;
         }
     }
 
+    /**
+     * Supplies connections borrowed from the pool of the configured {@link Database}, callers close them to return
+     * them to the pool. Each operation gets its own connection so that operations run concurrently.
+     * <p>
+     * Connections are only handed out once the schema of the database is migrated, see
+     * {@link DatabaseSchemaLoader#awaitSchema(Database)}. Connections are guarded by a {@link CircuitBreaker}: once
+     * the database failed repeatedly, requests fail immediately with {@link UnavailableException} instead of waiting
+     * for the connection timeout.
+     */
     abstract static class ConnectionSupplier implements AutoCloseable {
 
-        private transient Connection connection;
+        private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+        private final Set<String> completedMigrations = ConcurrentHashMap.newKeySet();
+        private volatile boolean completedMigrationsLoaded;
+        private volatile ResolvedDialect resolvedDialect;
 
         protected abstract Database database();
 
-        protected void initialize(Connection connection) throws SQLException {}
+        CircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+
+        /**
+         * Returns whether the given {@link OnlineMigration} is complete on this database. Until then, the storage
+         * keeps using the schema as it was before the migration.
+         */
+        boolean isMigrationComplete(@NonNull String id) {
+            return completedMigrations.contains(id);
+        }
 
-        @SuppressFBWarnings(value = "IS2_INCONSISTENT_SYNC")
-        synchronized Connection connection() throws SQLException {
-            if (connection == null || connection.isClosed()) {
-                Connection _connection = database().getDataSource().getConnection();
-                initialize(_connection);
-                connection = _connection;
+        boolean areMigrationsComplete() {
+            for (OnlineMigration migration : OnlineMigration.ALL) {
+                if (!completedMigrations.contains(migration.getId())) {
+                    return false;
+                }
             }
-            return connection;
+            return true;
         }
 
-        @Override
-        public void close() {
+        void migrationCompleted(@NonNull String id) {
+            completedMigrations.add(id);
+        }
+
+        /**
+         * Reads the online migrations completed before this instance started, so that the storage relies on them
+         * from the first connection instead of after the first run of {@link OnlineMigrationWork}.
+         */
+        private void loadCompletedMigrations(@NonNull Connection connection) {
             try {
-                if (connection != null) {
-                    connection.close();
+                for (Map.Entry<String, String[]> status :
+                        OnlineMigrationWork.readStatuses(getDialect(), connection).entrySet()) {
+                    if (OnlineMigration.COMPLETE.equals(status.getValue()[0])) {
+                        completedMigrations.add(status.getKey());
+                    }
                 }
+                completedMigrationsLoaded = true;
             } catch (SQLException e) {
-                throw new RuntimeException(e);
+                LOGGER.log(Level.FINE, "Failed reading the completed online migrations, retrying later", e);
+            }
+        }
+
+        /**
+         * Returns the dialect of the database, resolved once per configured database rather than on every statement.
+         */
+        SqlDialect getDialect() throws SQLException {
+            Database database = database();
+            ResolvedDialect resolved = resolvedDialect;
+            if (resolved == null || resolved.database != database) {
+                resolved = new ResolvedDialect(database, SqlDialect.forDatabase(database));
+                resolvedDialect = resolved;
+            }
+            return resolved.dialect;
+        }
+
+        /**
+         * Returns the name of the dialect of the database, see {@link Queries}.
+         */
+        String getDatabaseType() throws SQLException {
+            return getDialect().getName();
+        }
+
+        Connection connection() throws SQLException {
+            Database database = database();
+            if (database == null) {
+                throw new SQLException("No database configured");
+            }
+            // Waiting for the migration is not a failure of the database, it does not trip the breaker
+            DatabaseSchemaLoader.awaitSchema(database);
+            if (!circuitBreaker.allowRequest()) {
+                throw new UnavailableException("Database is unavailable, retrying later", null);
+            }
+            StorageEvents.ConnectionEvent event = new StorageEvents.ConnectionEvent();
+            event.begin();
+            try {
+                Connection connection;
+                try {
+                    connection = database.getDataSource().getConnection();
+                } catch (SQLException e) {
+                    circuitBreaker.recordFailure();
+                    throw new UnavailableException("Failed connecting to database server for fingerprint", e);
+                }
+                circuitBreaker.recordSuccess();
+                if (!completedMigrationsLoaded) {
+                    loadCompletedMigrations(connection);
+                }
+                event.succeeded = true;
+                return connection;
+            } finally {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.dialect = database.getDescriptor().getDisplayName().toLowerCase();
+                    event.commit();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            // Connections are owned by the pool of the database
+        }
+
+        /**
+         * The dialect of a database, replaced when another database is configured.
+         */
+        private static final class ResolvedDialect {
+            final Database database;
+            final SqlDialect dialect;
+
+            ResolvedDialect(Database database, SqlDialect dialect) {
+                this.database = database;
+                this.dialect = dialect;
+            }
+        }
+
+        /**
+         * Thrown when no connection could be obtained, or when the {@link CircuitBreaker} is open.
+         */
+        static class UnavailableException extends SQLTransientConnectionException {
+
+            private static final long serialVersionUID = 1L;
+
+            UnavailableException(String reason, @CheckForNull Throwable cause) {
+                super(reason, "08001", cause);
             }
-            connection = null;
         }
     }
 
@@ -0,0 +1,174 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Java Flight Recorder events emitted by {@link SqlFingerprintStorage}.
+ * <p>
+ * Events are only committed when enabled in the running recording, so the cost of an idle event is a single
+ * object allocation which the JIT usually eliminates.
+ */
+@Restricted(NoExternalUse.class)
+public class StorageEvents {
+
+    static final String CATEGORY = "SQL Fingerprint Storage";
+
+    private StorageEvents() {}
+
+    /**
+     * Common fields of the events emitted for an operation on a single fingerprint.
+     */
+    @Category({"Jenkins", CATEGORY})
+    @StackTrace(false)
+    abstract static class FingerprintEvent extends Event {
+
+        @Label("Fingerprint ID")
+        String fingerprintId;
+
+        @Label("Dialect")
+        String dialect;
+
+        @Label("SQL Duration")
+        @Description("Time spent executing SQL statements and reading their results")
+        @Timespan(Timespan.NANOSECONDS)
+        long sqlDuration;
+
+        @Label("Conversion Duration")
+        @Description("Time spent converting between fingerprints and their database representation")
+        @Timespan(Timespan.NANOSECONDS)
+        long conversionDuration;
+
+        @Label("Wait Duration")
+        @Description("Time spent waiting for a concurrency permit and a connection, including the schema migration")
+        @Timespan(Timespan.NANOSECONDS)
+        long waitDuration;
+
+        @Label("Succeeded")
+        boolean succeeded;
+
+        private transient boolean connected;
+        private transient long connectedNanos;
+
+        /**
+         * Records the end of the wait for a permit and a connection, the SQL duration is measured from there.
+         * @param startNanos {@link System#nanoTime()} at the beginning of the operation.
+         */
+        void connected(long startNanos) {
+            connectedNanos = System.nanoTime();
+            waitDuration = connectedNanos - startNanos;
+            connected = true;
+        }
+
+        /**
+         * Ends the event and commits it if it is enabled. Time after {@link #connected(long)} not accounted in
+         * {@link #conversionDuration} is attributed to SQL, an operation which never got a connection only waited.
+         * @param startNanos {@link System#nanoTime()} at the beginning of the operation.
+         */
+        void complete(long startNanos) {
+            end();
+            if (shouldCommit()) {
+                long now = System.nanoTime();
+                if (connected) {
+                    sqlDuration = Math.max(0, now - connectedNanos - conversionDuration);
+                } else {
+                    waitDuration = now - startNanos;
+                }
+                commit();
+            }
+        }
+    }
+
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.Save")
+    @Label("Fingerprint Save")
+    static class SaveEvent extends FingerprintEvent {
+
+        @Label("Usage Rows")
+        int usageRows;
+
+        @Label("Facet Rows")
+        int facetRows;
+
+        @Label("Facet Bytes")
+        @DataAmount
+        long facetBytes;
+    }
+
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.Load")
+    @Label("Fingerprint Load")
+    static class LoadEvent extends FingerprintEvent {
+
+        @Label("Found")
+        boolean found;
+
+        @Label("Usage Rows")
+        int usageRows;
+
+        @Label("Facet Bytes")
+        @DataAmount
+        long facetBytes;
+    }
+
+    /**
+     * Load of every fingerprint used by a build in one query, see {@link SqlFingerprintStorage#prefetch(String, int)}.
+     * The fingerprint ID is not set, the counts cover every fingerprint read.
+     */
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.Prefetch")
+    @Label("Fingerprint Prefetch")
+    static class PrefetchEvent extends LoadEvent {
+
+        @Label("Job")
+        String job;
+
+        @Label("Build")
+        int build;
+
+        @Label("Fingerprints")
+        int fingerprints;
+    }
+
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.Delete")
+    @Label("Fingerprint Delete")
+    static class DeleteEvent extends FingerprintEvent {
+
+        @Label("Deleted Rows")
+        int deletedRows;
+    }
+
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.Cleanup")
+    @Label("Fingerprint Cleanup")
+    @Category({"Jenkins", CATEGORY})
+    @StackTrace(false)
+    static class CleanupEvent extends Event {
+
+        @Label("Dialect")
+        String dialect;
+
+        @Label("Fingerprints Scanned")
+        long scanned;
+
+        @Label("Fingerprints Deleted")
+        long deleted;
+    }
+
+    @Name("io.jenkins.plugins.sql.fingerprint.storage.ConnectionAcquisition")
+    @Label("Connection Acquisition")
+    @Category({"Jenkins", CATEGORY})
+    @StackTrace(false)
+    static class ConnectionEvent extends Event {
+
+        @Label("Dialect")
+        String dialect;
+
+        @Label("Succeeded")
+        boolean succeeded;
+    }
+}
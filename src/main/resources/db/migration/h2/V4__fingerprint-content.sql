@@ -0,0 +1,17 @@
+CREATE TABLE FINGERPRINT_CONTENT
+  (FINGERPRINT_ID              VARCHAR(256)   NOT NULL,
+   TIMESTAMP                   TIMESTAMP(3)   NOT NULL,
+   FILENAME                    VARCHAR(256)   NOT NULL,
+   ORIGINAL_JOB_NAME           VARCHAR(256),
+   ORIGINAL_JOB_BUILD_NUMBER   INT,
+   PRIMARY KEY(FINGERPRINT_ID));
+
+ALTER TABLE FINGERPRINT ADD COLUMN CONTENT_ID VARCHAR(256);
+ALTER TABLE FINGERPRINT ALTER COLUMN TIMESTAMP SET NULL;
+ALTER TABLE FINGERPRINT ALTER COLUMN FILENAME SET NULL;
+
+CREATE INDEX FINGERPRINT_CONTENT_INDEX
+  ON FINGERPRINT (CONTENT_ID);
+
+ALTER TABLE FINGERPRINT ADD CONSTRAINT FINGERPRINT_CONTENT_FK
+  FOREIGN KEY (CONTENT_ID) REFERENCES FINGERPRINT_CONTENT(FINGERPRINT_ID);
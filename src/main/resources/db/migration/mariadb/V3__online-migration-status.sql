@@ -0,0 +1,6 @@
+CREATE TABLE FINGERPRINT_ONLINE_MIGRATION
+  (MIGRATION_ID       VARCHAR(128)    NOT NULL,
+   STATUS             VARCHAR(16)     NOT NULL,
+   PROGRESS           VARCHAR(256)    NOT NULL,
+   UPDATED            TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(MIGRATION_ID));
@@ -0,0 +1,20 @@
+CREATE TABLE FINGERPRINT_CONTENT
+  (FINGERPRINT_ID              VARCHAR(256)   NOT NULL,
+   TIMESTAMP                   TIMESTAMP(3)   NOT NULL,
+   FILENAME                    VARCHAR(256)   NOT NULL,
+   ORIGINAL_JOB_NAME           VARCHAR(256),
+   ORIGINAL_JOB_BUILD_NUMBER   INT,
+   PRIMARY KEY(FINGERPRINT_ID));
+
+-- Without foreign key checks the foreign key is added in place, every existing row has a NULL CONTENT_ID
+SET foreign_key_checks = 0;
+
+ALTER TABLE FINGERPRINT
+  ADD COLUMN CONTENT_ID VARCHAR(256),
+  MODIFY TIMESTAMP TIMESTAMP(3) NULL,
+  MODIFY FILENAME VARCHAR(256) NULL,
+  ADD INDEX FINGERPRINT_CONTENT_INDEX (CONTENT_ID),
+  ADD CONSTRAINT FINGERPRINT_CONTENT_FK FOREIGN KEY (CONTENT_ID) REFERENCES FINGERPRINT_CONTENT(FINGERPRINT_ID),
+  ALGORITHM=INPLACE, LOCK=NONE;
+
+SET foreign_key_checks = 1;
@@ -0,0 +1,7 @@
+CREATE TABLE FINGERPRINT_JOB_SUMMARY
+  (INSTANCE_ID          CHAR(32)        NOT NULL,
+   JOB                  VARCHAR(256)    NOT NULL,
+   FINGERPRINT_COUNT    BIGINT          NOT NULL,
+   USAGE_COUNT          BIGINT          NOT NULL,
+   UPDATED              TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(INSTANCE_ID, JOB));
@@ -0,0 +1,10 @@
+-- The hash of the entry is computed by the insert statement, see insert_fingerprint_facet_relation. Facets are never
+-- updated in place.
+DROP TRIGGER IF EXISTS before_insert_fingerprint_facet_relation;
+
+DROP TRIGGER IF EXISTS before_update_fingerprint_facet_relation;
+
+-- The primary keys start with the same columns, they serve the lookups and the foreign keys
+ALTER TABLE FINGERPRINT_JOB_BUILD_RELATION DROP INDEX FINGERPRINT_JOB_BUILD_RELATION_INDEX, ALGORITHM=INPLACE, LOCK=NONE;
+
+ALTER TABLE FINGERPRINT_FACET_RELATION DROP INDEX FINGERPRINT_FACET_RELATION_INDEX, ALGORITHM=INPLACE, LOCK=NONE;
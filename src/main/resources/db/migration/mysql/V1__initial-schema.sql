@@ -0,0 +1,39 @@
+-- Identifiers are hexadecimal digests stored in ASCII, which keeps the primary keys short. Job names are compared
+-- case sensitively like in Jenkins.
+CREATE TABLE FINGERPRINT
+  (FINGERPRINT_ID              VARCHAR(256)   CHARACTER SET ascii NOT NULL,
+   INSTANCE_ID                 CHAR(32)       CHARACTER SET ascii NOT NULL,
+   TIMESTAMP                   TIMESTAMP(3)   NOT NULL,
+   FILENAME                    VARCHAR(256)   NOT NULL,
+   ORIGINAL_JOB_NAME           VARCHAR(256),
+   ORIGINAL_JOB_BUILD_NUMBER   INT,
+   PRIMARY KEY(FINGERPRINT_ID, INSTANCE_ID))
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+
+CREATE TABLE FINGERPRINT_JOB_BUILD_RELATION
+  (FINGERPRINT_ID        VARCHAR(256)    CHARACTER SET ascii NOT NULL,
+   INSTANCE_ID           CHAR(32)        CHARACTER SET ascii NOT NULL,
+   JOB                   VARCHAR(256)    NOT NULL,
+   BUILD_NUMBER          INT             NOT NULL,
+   PRIMARY KEY(FINGERPRINT_ID, INSTANCE_ID, JOB, BUILD_NUMBER),
+   FOREIGN KEY(FINGERPRINT_ID, INSTANCE_ID) REFERENCES FINGERPRINT(FINGERPRINT_ID, INSTANCE_ID) ON DELETE CASCADE)
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+
+CREATE INDEX FINGERPRINT_JOB_BUILD_RELATION_INDEX
+  ON FINGERPRINT_JOB_BUILD_RELATION (FINGERPRINT_ID, INSTANCE_ID);
+
+-- The hash of the entry is computed by the insert statement, see insert_fingerprint_facet_relation, instead of a
+-- trigger
+CREATE TABLE FINGERPRINT_FACET_RELATION
+  (FINGERPRINT_ID     VARCHAR(256)    CHARACTER SET ascii NOT NULL,
+   INSTANCE_ID        CHAR(32)        CHARACTER SET ascii NOT NULL,
+   FACET_NAME         VARCHAR(256)    NOT NULL,
+   FACET_ENTRY        JSON            NOT NULL,
+   FACET_ENTRY_HASH   BINARY(32)      NOT NULL,
+   DELETION_BLOCKED   BOOLEAN         NOT NULL,
+   PRIMARY KEY(FINGERPRINT_ID, INSTANCE_ID, FACET_NAME, FACET_ENTRY_HASH),
+   FOREIGN KEY(FINGERPRINT_ID, INSTANCE_ID) REFERENCES FINGERPRINT(FINGERPRINT_ID, INSTANCE_ID) ON DELETE CASCADE)
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+
+CREATE INDEX FINGERPRINT_FACET_RELATION_INDEX
+  ON FINGERPRINT_FACET_RELATION (FINGERPRINT_ID, INSTANCE_ID);
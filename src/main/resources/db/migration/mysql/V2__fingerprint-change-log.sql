@@ -0,0 +1,11 @@
+CREATE TABLE FINGERPRINT_CHANGE_LOG
+  (SEQUENCE_ID        BIGINT          NOT NULL AUTO_INCREMENT,
+   FINGERPRINT_ID     VARCHAR(256)    CHARACTER SET ascii NOT NULL,
+   INSTANCE_ID        CHAR(32)        CHARACTER SET ascii NOT NULL,
+   CHANGE_TYPE        VARCHAR(16)     CHARACTER SET ascii NOT NULL,
+   CHANGE_TIMESTAMP   TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(SEQUENCE_ID))
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
+
+CREATE INDEX FINGERPRINT_CHANGE_LOG_INDEX
+  ON FINGERPRINT_CHANGE_LOG (INSTANCE_ID, SEQUENCE_ID);
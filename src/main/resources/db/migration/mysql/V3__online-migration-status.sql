@@ -0,0 +1,7 @@
+CREATE TABLE FINGERPRINT_ONLINE_MIGRATION
+  (MIGRATION_ID       VARCHAR(128)    CHARACTER SET ascii NOT NULL,
+   STATUS             VARCHAR(16)     CHARACTER SET ascii NOT NULL,
+   PROGRESS           VARCHAR(256)    NOT NULL,
+   UPDATED            TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(MIGRATION_ID))
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
@@ -0,0 +1,8 @@
+CREATE TABLE FINGERPRINT_JOB_SUMMARY
+  (INSTANCE_ID          CHAR(32)        CHARACTER SET ascii NOT NULL,
+   JOB                  VARCHAR(256)    NOT NULL,
+   FINGERPRINT_COUNT    BIGINT          NOT NULL,
+   USAGE_COUNT          BIGINT          NOT NULL,
+   UPDATED              TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(INSTANCE_ID, JOB))
+  ENGINE=InnoDB ROW_FORMAT=DYNAMIC DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_bin;
@@ -0,0 +1,4 @@
+-- The primary keys start with the same columns, they serve the lookups and the foreign keys
+ALTER TABLE FINGERPRINT_JOB_BUILD_RELATION DROP INDEX FINGERPRINT_JOB_BUILD_RELATION_INDEX, ALGORITHM=INPLACE, LOCK=NONE;
+
+ALTER TABLE FINGERPRINT_FACET_RELATION DROP INDEX FINGERPRINT_FACET_RELATION_INDEX, ALGORITHM=INPLACE, LOCK=NONE;
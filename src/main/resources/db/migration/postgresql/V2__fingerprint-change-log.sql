@@ -0,0 +1,10 @@
+CREATE TABLE FINGERPRINT_CHANGE_LOG
+  (SEQUENCE_ID        BIGINT          GENERATED ALWAYS AS IDENTITY,
+   FINGERPRINT_ID     VARCHAR(256)    NOT NULL,
+   INSTANCE_ID        CHAR(32)        NOT NULL,
+   CHANGE_TYPE        VARCHAR(16)     NOT NULL,
+   CHANGE_TIMESTAMP   TIMESTAMP(3)    NOT NULL,
+   PRIMARY KEY(SEQUENCE_ID));
+
+CREATE INDEX FINGERPRINT_CHANGE_LOG_INDEX
+  ON FINGERPRINT_CHANGE_LOG (INSTANCE_ID, SEQUENCE_ID);
@@ -0,0 +1,4 @@
+-- The primary keys start with the same columns and serve the same lookups
+DROP INDEX IF EXISTS FINGERPRINT_JOB_BUILD_RELATION_INDEX;
+
+DROP INDEX IF EXISTS FINGERPRINT_FACET_RELATION_INDEX;
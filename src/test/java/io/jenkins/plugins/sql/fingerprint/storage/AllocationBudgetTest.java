@@ -0,0 +1,200 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import hudson.Util;
+import hudson.model.Fingerprint;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import jenkins.model.FingerprintFacet;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Checks the bytes allocated by the conversions between fingerprints and their database representation against the
+ * budgets in {@code allocation-budgets.properties}, for fingerprints of different shapes.
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 100;
+
+    private static final Logger LOGGER = Logger.getLogger(AllocationBudgetTest.class.getName());
+
+    /**
+     * Set to write the budgets matching the allocations measured on this JVM to {@link #CALIBRATION_FILE} instead of
+     * checking them.
+     */
+    private static final boolean CALIBRATE = Boolean.getBoolean(AllocationBudgetTest.class.getName() + ".calibrate");
+
+    private static final String CALIBRATION_FILE = System.getProperty(
+            AllocationBudgetTest.class.getName() + ".calibrationFile", "target/allocation-budgets.properties");
+
+    private static Properties budgets;
+    private static final Map<String, Long> measured = new TreeMap<>();
+
+    @BeforeAll
+    public static void loadBudgets() throws IOException {
+        budgets = new Properties();
+        try (InputStream inputStream =
+                AllocationBudgetTest.class.getResourceAsStream("allocation-budgets.properties")) {
+            assertThat(inputStream, notNullValue());
+            budgets.load(inputStream);
+        }
+    }
+
+    @AfterAll
+    public static void writeCalibration() throws IOException {
+        if (!CALIBRATE || measured.isEmpty()) {
+            return;
+        }
+        StringBuilder calibration = new StringBuilder();
+        for (Map.Entry<String, Long> allocation : measured.entrySet()) {
+            calibration
+                    .append(allocation.getKey())
+                    .append(" = ")
+                    .append(allocation.getValue() * 3 / 2)
+                    .append("  # measured ")
+                    .append(allocation.getValue())
+                    .append('\n');
+        }
+        File file = new File(CALIBRATION_FILE);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        Files.write(file.toPath(), calibration.toString().getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Allocation budgets written to " + file.getAbsolutePath() + ":\n" + calibration);
+    }
+
+    /**
+     * Fingerprint as read from the database, see {@link DataConversion#toFingerprint}.
+     */
+    static final class Shape {
+        final String name;
+        final String id;
+        final String usages;
+        final String facets;
+
+        Shape(String name, int jobs, int builds, int facets, int facetBytes) {
+            this.name = name;
+            this.id = Util.getDigestOf(name);
+            JSONArray usages = new JSONArray();
+            for (int job = 0; job < jobs; job++) {
+                for (int build = 0; build < builds; build++) {
+                    // Every other build, so that each build is a range of its own
+                    usages.put(new JSONObject()
+                            .put(DataConversion.JOB, "folder/job-" + job)
+                            .put(DataConversion.BUILD_NUMBER, 2 * build + 1));
+                }
+            }
+            this.usages = usages.toString();
+            JSONArray facetArray = new JSONArray();
+            String facetName = XStreamHandler.getXStream().getMapper().serializedClass(PayloadFacet.class);
+            for (int facet = 0; facet < facets; facet++) {
+                facetArray.put(new JSONObject()
+                        .put(DataConversion.FACET_NAME, facetName)
+                        .put(
+                                DataConversion.FACET_ENTRY,
+                                new JSONObject()
+                                        .put("timestamp", String.valueOf(facet))
+                                        .put("payload", "x".repeat(facetBytes))));
+            }
+            this.facets = facets == 0 ? null : facetArray.toString();
+        }
+
+        Fingerprint load() {
+            return DataConversion.toFingerprint(
+                    id, new Timestamp(0), name + ".jar", "folder/job-0", "1", usages, facets);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static Stream<Shape> shapes() {
+        return Stream.of(
+                new Shape("small", 1, 1, 0, 0),
+                new Shape("manyJobs", 200, 1, 0, 0),
+                new Shape("manyBuilds", 1, 1000, 0, 0),
+                new Shape("largeFacets", 1, 1, 20, 2048));
+    }
+
+    @ParameterizedTest
+    @MethodSource("shapes")
+    public void loadConversionStaysWithinBudget(Shape shape) {
+        assertThat(shape.load(), notNullValue());
+        checkBudget("load." + shape.name, shape::load);
+    }
+
+    @ParameterizedTest
+    @MethodSource("shapes")
+    public void saveConversionStaysWithinBudget(Shape shape) {
+        Fingerprint fingerprint = shape.load();
+        checkBudget("save." + shape.name, () -> {
+            // The conversions done by SqlFingerprintStorage#save besides binding parameters
+            DataConversion.toUsageRows(fingerprint);
+            DataConversion.toFacetEntries(fingerprint);
+        });
+    }
+
+    private static void checkBudget(String name, Runnable conversion) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean, "Allocations are not measured by this JVM");
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemoryEnabled(), "Allocations are not measured by this JVM");
+
+        for (int i = 0; i < WARMUP; i++) {
+            conversion.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            conversion.run();
+        }
+        long allocated = (threads.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+        if (CALIBRATE) {
+            measured.put(name, allocated);
+            return;
+        }
+
+        String budget = budgets.getProperty(name);
+        assertThat("No budget for " + name, budget, notNullValue());
+        assertThat(
+                name + " allocates " + allocated + " bytes per call",
+                allocated,
+                lessThanOrEqualTo(Long.parseLong(budget.trim())));
+    }
+
+    public static final class PayloadFacet extends FingerprintFacet {
+        private final String payload;
+
+        PayloadFacet(Fingerprint fingerprint, long timestamp, String payload) {
+            super(fingerprint, timestamp);
+            this.payload = payload;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong clock = new AtomicLong();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(2, 10, TimeUnit.NANOSECONDS, clock::get);
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.isOpen(), is(true));
+        assertThat(circuitBreaker.allowRequest(), is(false));
+    }
+
+    @Test
+    public void shouldCloseWhenProbeSucceeds() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        clock.addAndGet(10);
+
+        assertThat(circuitBreaker.isOpen(), is(false));
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.HALF_OPEN));
+        assertThat(circuitBreaker.allowRequest(), is(false));
+
+        circuitBreaker.recordSuccess();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.CLOSED));
+        assertThat(circuitBreaker.allowRequest(), is(true));
+    }
+
+    @Test
+    public void shouldReopenWhenProbeFails() {
+        circuitBreaker.recordFailure();
+        circuitBreaker.recordFailure();
+        clock.addAndGet(10);
+
+        assertThat(circuitBreaker.allowRequest(), is(true));
+        circuitBreaker.recordFailure();
+        assertThat(circuitBreaker.getState(), is(CircuitBreaker.State.OPEN));
+        assertThat(circuitBreaker.allowRequest(), is(false));
+    }
+}
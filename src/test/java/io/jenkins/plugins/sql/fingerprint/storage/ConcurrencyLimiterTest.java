@@ -0,0 +1,55 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void shouldRejectWhenLimitReached() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 0);
+        ConcurrencyLimiter.Permit first = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        ConcurrencyLimiter.Permit second = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        assertThat(first, is(notNullValue()));
+        assertThat(second, is(notNullValue()));
+        assertThat(limiter.acquire(0, TimeUnit.MILLISECONDS), is(nullValue()));
+        assertThat(limiter.getRejected(), is(1L));
+
+        first.close();
+        assertThat(limiter.acquire(0, TimeUnit.MILLISECONDS), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldTimeOutWaitingForPermit() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1);
+        ConcurrencyLimiter.Permit permit = limiter.acquire(0, TimeUnit.MILLISECONDS);
+        assertThat(permit, is(notNullValue()));
+        assertThat(limiter.acquire(50, TimeUnit.MILLISECONDS), is(nullValue()));
+        assertThat(limiter.getRejected(), is(1L));
+    }
+
+    @Test
+    public void shouldBackOffOnDropAndRecoverOnSuccess() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 0);
+        try (ConcurrencyLimiter.Permit permit = limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+            permit.dropped();
+        }
+        assertThat(limiter.getLimit(), is(2));
+
+        try (ConcurrencyLimiter.Permit permit = limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+            permit.dropped();
+        }
+        assertThat(limiter.getLimit(), is(1));
+
+        try (ConcurrencyLimiter.Permit permit = limiter.acquire(0, TimeUnit.MILLISECONDS)) {
+            permit.succeeded();
+        }
+        assertThat(limiter.getLimit(), is(2));
+        assertThat(limiter.getInFlight(), is(0));
+    }
+}
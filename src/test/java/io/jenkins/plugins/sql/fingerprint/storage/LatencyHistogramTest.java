@@ -0,0 +1,47 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class LatencyHistogramTest {
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void shouldBoundEveryLatencyByItsBucket() {
+        for (long micros = 1; micros < TimeUnit.MINUTES.toMicros(1); micros = micros * 3 / 2 + 1) {
+            long nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+            int bucket = LatencyHistogram.bucketOf(nanos);
+            assertThat(nanos < LatencyHistogram.upperBoundNanos(bucket), is(true));
+            assertThat(LatencyHistogram.upperBoundNanos(bucket) < nanos * 1.5 + 2000, is(true));
+        }
+        assertThat(LatencyHistogram.bucketOf(Long.MAX_VALUE), is(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void shouldComputePercentiles() {
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertThat(histogram.getCount(), is(100L));
+        assertThat(histogram.getMeanMillis(), closeTo(50.5, 0.01));
+        assertThat(histogram.getMaxMillis(), closeTo(100, 0.01));
+        assertThat(histogram.getPercentileMillis(0.5), closeTo(50, 10));
+        assertThat(histogram.getPercentileMillis(0.99), closeTo(99, 20));
+        assertThat(histogram.getPercentileMillis(0.5), lessThan(histogram.getPercentileMillis(0.95)));
+    }
+
+    @Test
+    public void shouldReset() {
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(5));
+        histogram.reset();
+        assertThat(histogram.getCount(), is(0L));
+        assertThat(histogram.getPercentileMillis(0.5), is(0.0));
+        assertThat(histogram.getMaxMillis(), is(0.0));
+    }
+}
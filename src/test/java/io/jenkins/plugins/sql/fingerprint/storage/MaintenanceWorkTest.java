@@ -0,0 +1,36 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class MaintenanceWorkTest {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2024, 3, 12, 0, 0);
+
+    @Test
+    public void shouldRunInsideTheWindowOnly() {
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(1).withMinute(59), 2, 3), is(0L));
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(2), 2, 3), is(TimeUnit.HOURS.toMillis(3)));
+        assertThat(
+                MaintenanceWork.remainingMillis(DAY.withHour(4).withMinute(30), 2, 3),
+                is(TimeUnit.MINUTES.toMillis(30)));
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(5), 2, 3), is(0L));
+    }
+
+    @Test
+    public void shouldRunInWindowsSpanningMidnight() {
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(23), 22, 4), is(TimeUnit.HOURS.toMillis(3)));
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(1), 22, 4), is(TimeUnit.HOURS.toMillis(1)));
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(2), 22, 4), is(0L));
+    }
+
+    @Test
+    public void shouldNotRunWithoutWindow() {
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(2), 2, 0), is(0L));
+        assertThat(MaintenanceWork.remainingMillis(DAY.withHour(7), 2, 24), is(TimeUnit.HOURS.toMillis(19)));
+    }
+}
@@ -0,0 +1,41 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class PrefetchBufferTest {
+
+    private final PrefetchBuffer<Object> buffer = new PrefetchBuffer<>();
+    private final Object fingerprint = new Object();
+
+    @Test
+    public void shouldServePrefetchedFingerprints() {
+        buffer.put("job", 1, Map.of("a", fingerprint), buffer.begin());
+        assertThat(buffer.isPrefetched("job", 1), is(true));
+        assertThat(buffer.isPrefetched("job", 2), is(false));
+        assertThat(buffer.get("a"), is(sameInstance(fingerprint)));
+        assertThat(buffer.get("b"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDropInvalidatedFingerprints() {
+        buffer.put("job", 1, Map.of("a", fingerprint, "b", fingerprint), buffer.begin());
+        buffer.invalidate("a");
+        assertThat(buffer.get("a"), is(nullValue()));
+        assertThat(buffer.get("b"), is(sameInstance(fingerprint)));
+    }
+
+    @Test
+    public void shouldDiscardPrefetchRacingWithChange() {
+        long token = buffer.begin();
+        buffer.invalidate("c");
+        buffer.put("job", 1, Map.of("a", fingerprint), token);
+        assertThat(buffer.get("a"), is(nullValue()));
+        assertThat(buffer.size(), is(0));
+    }
+}
@@ -0,0 +1,102 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import hudson.Util;
+import hudson.model.Fingerprint;
+import hudson.model.TaskListener;
+import hudson.util.Secret;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import jenkins.fingerprints.GlobalFingerprintConfiguration;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
+import org.jenkinsci.plugins.database.h2.LocalH2Database;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class ShadowFingerprintStorageTest {
+
+    private ShadowFingerprintStorage setConfiguration() throws Exception {
+        GlobalDatabaseConfiguration.get()
+                .setDatabase(new LocalH2Database(
+                        new File(Jenkins.get().getRootDir(), "fingerprints"), false, "sa", Secret.fromString("")));
+        ShadowFingerprintStorage storage = new ShadowFingerprintStorage(SqlFingerprintStorage.get());
+        storage.setSampleRate(1);
+        GlobalFingerprintConfiguration.get().setStorage(storage);
+        DatabaseSchemaLoader.migrateSchema();
+        return storage;
+    }
+
+    @Test
+    public void shouldMirrorOperationsToSql(JenkinsRule j) throws Exception {
+        ShadowFingerprintStorage storage = setConfiguration();
+        SqlFingerprintStorage sql = storage.getSql();
+        String id = Util.getDigestOf("shouldMirrorOperationsToSql");
+
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add("a", 3);
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        assertThat(ShadowFingerprintStorage.describe(sql.load(id)), is(ShadowFingerprintStorage.describe(fingerprint)));
+
+        Fingerprint loaded = Fingerprint.load(id);
+        assertThat(loaded, is(not(nullValue())));
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        ShadowStatistics statistics = storage.getStatistics();
+        assertThat(statistics.getCompared(), is(1L));
+        assertThat(statistics.getMismatched(), is(0L));
+        assertThat(statistics.getFailed(), is(0L));
+        assertThat(statistics.getFileLatency(ShadowStatistics.Operation.SAVE).getCount(), is(2L));
+        assertThat(statistics.getSqlLatency(ShadowStatistics.Operation.SAVE).getCount(), is(2L));
+        assertThat(statistics.getSqlLatency(ShadowStatistics.Operation.LOAD).getCount(), is(1L));
+
+        Fingerprint.delete(id);
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        assertThat(sql.load(id), is(nullValue()));
+    }
+
+    @Test
+    public void shouldMirrorSavedStateAndCleanup(JenkinsRule j) throws Exception {
+        ShadowFingerprintStorage storage = setConfiguration();
+        SqlFingerprintStorage sql = storage.getSql();
+        String id = Util.getDigestOf("shouldMirrorSavedStateAndCleanup");
+
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add("a", 3);
+        String saved = ShadowFingerprintStorage.describe(fingerprint);
+        // Modified after the save while the mirrored save may still be pending
+        fingerprint.addWithoutSaving("b", 1);
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        assertThat(ShadowFingerprintStorage.describe(sql.load(id)), is(saved));
+
+        // No build of the jobs exists, the deletion by the cleanup of the file storage is mirrored
+        storage.iterateAndCleanupFingerprints(TaskListener.NULL);
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        assertThat(sql.load(id), is(nullValue()));
+        assertThat(storage.getStatistics().getFailed(), is(0L));
+    }
+
+    @Test
+    public void shouldReportDifferences(JenkinsRule j) throws Exception {
+        ShadowFingerprintStorage storage = setConfiguration();
+        String id = Util.getDigestOf("shouldReportDifferences");
+
+        new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        storage.getSql().delete(id);
+
+        assertThat(Fingerprint.load(id), is(not(nullValue())));
+        assertThat(storage.awaitMirror(1, TimeUnit.MINUTES), is(true));
+        assertThat(storage.getStatistics().getMismatched(), is(1L));
+        assertThat(storage.getStatistics().getRecentMismatches(), contains(id));
+
+        storage.getStatistics().reset();
+        assertThat(storage.getStatistics().getCompared(), is(0L));
+    }
+}
@@ -0,0 +1,37 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+
+import hudson.Util;
+import org.junit.jupiter.api.Test;
+
+class ShardingTest {
+
+    @Test
+    void singleShardReceivesEveryFingerprint() {
+        assertThat(SqlFingerprintStorage.shardOf("a", 1), is(0));
+        assertThat(SqlFingerprintStorage.shardOf("a", 0), is(0));
+    }
+
+    @Test
+    void shardIsStable() {
+        String id = Util.getDigestOf("fingerprint");
+        int shard = SqlFingerprintStorage.shardOf(id, 4);
+        for (int i = 0; i < 10; i++) {
+            assertThat(SqlFingerprintStorage.shardOf(id, 4), is(shard));
+        }
+    }
+
+    @Test
+    void fingerprintsAreSpreadOverShards() {
+        int[] counts = new int[4];
+        for (int i = 0; i < 1000; i++) {
+            counts[SqlFingerprintStorage.shardOf(Util.getDigestOf(String.valueOf(i)), counts.length)]++;
+        }
+        for (int count : counts) {
+            assertThat(count, greaterThan(150));
+        }
+    }
+}
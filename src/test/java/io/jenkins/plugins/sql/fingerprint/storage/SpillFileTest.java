@@ -0,0 +1,130 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SpillFileTest {
+
+    @TempDir
+    File directory;
+
+    @Test
+    public void shouldServeLatestPendingChange() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "spill.log"));
+        assertThat(spill.isEmpty(), is(true));
+        assertThat(spill.pending("a"), is(nullValue()));
+
+        spill.appendSave("a", "{\"v\":1}");
+        spill.appendSave("a", "{\"v\":2}");
+        spill.appendDelete("b");
+
+        SpillFile.Record a = spill.pending("a");
+        assertThat(a, is(notNullValue()));
+        assertThat(a.payload, is("{\"v\":2}"));
+        assertThat(spill.pending("b").isDelete(), is(true));
+        assertThat(spill.size(), is(2));
+    }
+
+    @Test
+    public void shouldReplayOnlyLatestChanges() throws IOException {
+        SpillFile spill = new SpillFile(new File(directory, "spill.log"));
+        spill.appendSave("a", "1");
+        spill.appendSave("b", "1");
+        spill.appendSave("a", "2");
+
+        List<SpillFile.Record> batch = spill.readBatch(10);
+        assertThat(batch, hasSize(3));
+        assertThat(spill.isLatest(batch.get(0)), is(false));
+        assertThat(spill.isLatest(batch.get(1)), is(true));
+        assertThat(spill.isLatest(batch.get(2)), is(true));
+
+        spill.applied(batch.get(1));
+        spill.applied(batch.get(2));
+        spill.advance(batch.get(2));
+        assertThat(spill.isEmpty(), is(true));
+        assertThat(spill.readBatch(10), hasSize(0));
+        assertThat(new File(directory, "spill.log").length(), is(0L));
+    }
+
+    @Test
+    public void shouldNotReplaySupersededChangesAfterRestart() throws IOException {
+        File file = new File(directory, "spill.log");
+        SpillFile spill = new SpillFile(file);
+        spill.appendSave("a", "1");
+        spill.appendSave("b", "1");
+        spill.supersede("a");
+        spill.close();
+
+        spill = new SpillFile(file);
+        assertThat(spill.pending("a"), is(nullValue()));
+        assertThat(spill.pending("b").payload, is("1"));
+    }
+
+    @Test
+    public void shouldRecoverChangesOfFileNeverClosed() throws IOException {
+        File file = new File(directory, "spill.log");
+        SpillFile crashed = new SpillFile(file);
+        crashed.appendSave("a", "1");
+        crashed.appendDelete("b");
+        crashed.appendSave("c", "1");
+        crashed.supersede("c");
+
+        // Read by another instance while the first one still holds the file, as after a crash of the controller
+        SpillFile spill = new SpillFile(file);
+        assertThat(spill.pending("a").payload, is("1"));
+        assertThat(spill.pending("b").isDelete(), is(true));
+        assertThat(spill.pending("c"), is(nullValue()));
+        assertThat(spill.readBatch(10), hasSize(4));
+        spill.close();
+        crashed.close();
+    }
+
+    @Test
+    public void shouldServePendingChangesWhileAppending() throws Exception {
+        SpillFile spill = new SpillFile(new File(directory, "spill.log"));
+        spill.appendSave("a", "1");
+
+        // Appends hold the monitor of the spill file while forcing their record to the disk
+        synchronized (spill) {
+            CompletableFuture<SpillFile.Record> pending = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return spill.pending("a");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            assertThat(pending.get(10, TimeUnit.SECONDS).payload, is("1"));
+            assertThat(CompletableFuture.supplyAsync(spill::isEmpty).get(10, TimeUnit.SECONDS), is(false));
+        }
+    }
+
+    @Test
+    public void shouldDropIncompleteRecordAfterRestart() throws IOException {
+        File file = new File(directory, "spill.log");
+        SpillFile spill = new SpillFile(file);
+        spill.appendSave("a", "1");
+        spill.appendSave("b", "12345");
+        spill.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        spill = new SpillFile(file);
+        assertThat(spill.pending("a").payload, is("1"));
+        assertThat(spill.pending("b"), is(nullValue()));
+    }
+}
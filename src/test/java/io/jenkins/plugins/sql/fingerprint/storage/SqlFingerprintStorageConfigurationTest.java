@@ -0,0 +1,68 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import jenkins.fingerprints.GlobalFingerprintConfiguration;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+public class SqlFingerprintStorageConfigurationTest {
+
+    @Test
+    public void shouldUseDefaultsForSettingsMissingFromOldConfiguration(JenkinsRule j) throws Exception {
+        GlobalFingerprintConfiguration configuration = GlobalFingerprintConfiguration.get();
+        // As saved before any of the advanced settings existed
+        Files.writeString(
+                configuration.getConfigFile().getFile().toPath(),
+                "<?xml version='1.1' encoding='UTF-8'?>\n"
+                        + "<jenkins.fingerprints.GlobalFingerprintConfiguration>\n"
+                        + "  <storage class=\"io.jenkins.plugins.sql.fingerprint.storage.SqlFingerprintStorage\">\n"
+                        + "    <instanceId>0123456789abcdef0123456789abcdef</instanceId>\n"
+                        + "  </storage>\n"
+                        + "  <fingerprintCleanupDisabled>false</fingerprintCleanupDisabled>\n"
+                        + "</jenkins.fingerprints.GlobalFingerprintConfiguration>\n",
+                StandardCharsets.UTF_8);
+        configuration.load();
+
+        assertThat(configuration.getStorage(), is(instanceOf(SqlFingerprintStorage.class)));
+        SqlFingerprintStorage storage = (SqlFingerprintStorage) configuration.getStorage();
+        assertThat(storage.getQueryTimeout(), is(SqlFingerprintStorage.DEFAULT_QUERY_TIMEOUT));
+        assertThat(storage.getMaxConcurrentOperations(), is(SqlFingerprintStorage.DEFAULT_MAX_CONCURRENT_OPERATIONS));
+        assertThat(storage.getAcquireTimeout(), is(SqlFingerprintStorage.DEFAULT_ACQUIRE_TIMEOUT));
+        assertThat(storage.getSlowOperationThreshold(), is(0));
+        assertThat(storage.getMaintenanceWindowStart(), is(SqlFingerprintStorage.DEFAULT_MAINTENANCE_WINDOW_START));
+        assertThat(storage.getMaintenanceWindowHours(), is(0));
+        assertThat(storage.getMaxEagerUsages(), is(0));
+        assertThat(storage.getConcurrencyLimiter(), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldKeepSettingsExplicitlySetToZero(JenkinsRule j) throws Exception {
+        SqlFingerprintStorage storage = new SqlFingerprintStorage();
+        storage.setQueryTimeout(0);
+        storage.setMaxConcurrentOperations(0);
+        storage.setAcquireTimeout(0);
+        storage.setSlowOperationThreshold(0);
+        storage.setMaintenanceWindowStart(0);
+        GlobalFingerprintConfiguration configuration = GlobalFingerprintConfiguration.get();
+        configuration.setStorage(storage);
+        configuration.save();
+        configuration.load();
+
+        SqlFingerprintStorage loaded = (SqlFingerprintStorage) configuration.getStorage();
+        assertThat(loaded.getQueryTimeout(), is(0));
+        assertThat(loaded.getMaxConcurrentOperations(), is(0));
+        assertThat(loaded.getAcquireTimeout(), is(0));
+        assertThat(loaded.getSlowOperationThreshold(), is(0));
+        assertThat(loaded.getMaintenanceWindowStart(), is(0));
+        assertThat(loaded.getConcurrencyLimiter(), is(nullValue()));
+    }
+}
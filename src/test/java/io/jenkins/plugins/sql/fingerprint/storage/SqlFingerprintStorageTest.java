@@ -3,30 +3,55 @@ package io.jenkins.plugins.sql.fingerprint.storage;
 import static org.hamcrest.text.IsEqualCompressingWhiteSpace.equalToCompressingWhiteSpace;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.nullValue;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNot.not;
 
 import hudson.Util;
 import hudson.model.Fingerprint;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.TaskListener;
+import hudson.tasks.Fingerprinter;
 import hudson.util.Secret;
 import io.jenkins.plugins.database.mariadb.MariaDbDatabase;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import jenkins.fingerprints.FingerprintStorage;
 import jenkins.fingerprints.GlobalFingerprintConfiguration;
 import jenkins.model.FingerprintFacet;
+import jenkins.model.Jenkins;
 import org.hamcrest.Matchers;
 import org.jenkinsci.main.modules.instance_identity.InstanceIdentity;
 import org.jenkinsci.plugins.database.AbstractRemoteDatabase;
+import org.jenkinsci.plugins.database.Database;
 import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
+import org.jenkinsci.plugins.database.h2.LocalH2Database;
+import org.jenkinsci.plugins.database.mysql.MySQLDatabase;
 import org.jenkinsci.plugins.database.postgresql.PostgreSQLDatabase;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -34,6 +59,7 @@ import org.junit.jupiter.params.provider.MethodSource;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.testcontainers.containers.MariaDBContainer;
+import org.testcontainers.containers.MySQLContainer;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -44,7 +70,7 @@ public class SqlFingerprintStorageTest {
 
     // Tested databases
     private static Stream<String> databases() {
-        return Stream.of("postgresql", "mariadb");
+        return Stream.of("postgresql", "mariadb", "mysql", "h2");
     }
 
     // Test containers
@@ -54,31 +80,54 @@ public class SqlFingerprintStorageTest {
     @Container
     public MariaDBContainer<?> mariadb = new MariaDBContainer<>("mariadb:11.2.2");
 
+    @Container
+    public MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0.36");
+
     public void setConfiguration(String type) throws IOException {
 
-        // The remote database configuration
-        AbstractRemoteDatabase database;
+        // The database configuration
+        Database database;
 
         // PostgreSQL
         if (type.equals("postgresql")) {
-            database = new PostgreSQLDatabase(
+            AbstractRemoteDatabase remoteDatabase = new PostgreSQLDatabase(
                     postgres.getHost() + ":" + postgres.getMappedPort(5432),
                     postgres.getDatabaseName(),
                     postgres.getUsername(),
                     Secret.fromString(postgres.getPassword()),
                     null);
-            database.setValidationQuery("SELECT 1");
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
         }
 
         // MariaDB
         else if (type.equals("mariadb")) {
-            database = new MariaDbDatabase(
+            AbstractRemoteDatabase remoteDatabase = new MariaDbDatabase(
                     mariadb.getHost() + ":" + mariadb.getMappedPort(3306),
                     mariadb.getDatabaseName(),
                     mariadb.getUsername(),
                     Secret.fromString(mariadb.getPassword()),
                     null);
-            database.setValidationQuery("SELECT 1");
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
+        }
+
+        // MySQL
+        else if (type.equals("mysql")) {
+            AbstractRemoteDatabase remoteDatabase = new MySQLDatabase(
+                    mysql.getHost() + ":" + mysql.getMappedPort(3306),
+                    mysql.getDatabaseName(),
+                    mysql.getUsername(),
+                    Secret.fromString(mysql.getPassword()),
+                    null);
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
+        }
+
+        // H2, embedded
+        else if (type.equals("h2")) {
+            database = new LocalH2Database(
+                    new File(Jenkins.get().getRootDir(), "fingerprints"), false, "sa", Secret.fromString(""));
         } else {
             throw new IllegalArgumentException("Invalid database type");
         }
@@ -113,7 +162,7 @@ public class SqlFingerprintStorageTest {
         try (Connection connection =
                 SqlFingerprintStorage.get().getConnectionSupplier().connection()) {
             try (PreparedStatement preparedStatement =
-                    connection.prepareStatement(Queries.getQuery(database, Queries.SELECT_FINGERPRINT))) {
+                    connection.prepareStatement(SqlDialect.forName(database).getQuery(Queries.SELECT_FINGERPRINT))) {
                 preparedStatement.setString(1, id);
                 preparedStatement.setString(2, instanceId);
                 ResultSet resultSet = preparedStatement.executeQuery();
@@ -244,6 +293,522 @@ public class SqlFingerprintStorageTest {
         assertThat(fingerprintStorage.isReady(), is(true));
     }
 
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldRecordChanges(String database, JenkinsRule j) throws IOException {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        String id = Util.getDigestOf("shouldRecordChanges");
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add("a", 3);
+        Fingerprint.delete(id);
+
+        List<FingerprintChange> changes = storage.getChanges(0, 0, 100);
+        assertThat(changes.size(), is(3));
+        for (FingerprintChange change : changes) {
+            assertThat(change.getFingerprintId(), is(id));
+        }
+        assertThat(changes.get(0).getType(), is(FingerprintChange.Type.SAVE));
+        assertThat(changes.get(1).getType(), is(FingerprintChange.Type.SAVE));
+        assertThat(changes.get(2).getType(), is(FingerprintChange.Type.DELETE));
+
+        List<FingerprintChange> following = storage.getChanges(0, changes.get(0).getSequence(), 1);
+        assertThat(following.size(), is(1));
+        assertThat(following.get(0).getSequence(), is(changes.get(1).getSequence()));
+        assertThat(storage.getChanges(0, changes.get(2).getSequence(), 100).isEmpty(), is(true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldLookUpAcrossInstances(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        String id = Util.getDigestOf("shouldLookUpAcrossInstances");
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add("a", 3);
+        fingerprint.add("b", 4);
+
+        String otherInstanceId = Util.getDigestOf("otherInstance");
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier(id);
+        try (Connection connection = supplier.connection()) {
+            try (PreparedStatement preparedStatement =
+                    storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT)) {
+                preparedStatement.setString(1, id);
+                preparedStatement.setString(2, otherInstanceId);
+                preparedStatement.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+                preparedStatement.setString(4, "foo.jar");
+                preparedStatement.setString(5, "producer");
+                preparedStatement.setInt(6, 7);
+                preparedStatement.executeUpdate();
+            }
+            try (PreparedStatement preparedStatement =
+                    storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_JOB_BUILD_RELATION)) {
+                preparedStatement.setString(1, id);
+                preparedStatement.setString(2, otherInstanceId);
+                preparedStatement.setString(3, "producer");
+                preparedStatement.setInt(4, 7);
+                preparedStatement.executeUpdate();
+            }
+        }
+
+        List<FingerprintInstanceUsage> usages = storage.lookupAcrossInstances(id);
+        assertThat(usages.size(), is(2));
+        for (FingerprintInstanceUsage usage : usages) {
+            if (usage.isLocal()) {
+                assertThat(usage.getInstanceId(), is(storage.getInstanceId()));
+                assertThat(usage.getOriginalJobName(), is(nullValue()));
+                assertThat(usage.getJobCount(), is(2));
+                assertThat(usage.getBuildCount(), is(2));
+            } else {
+                assertThat(usage.getInstanceId(), is(otherInstanceId));
+                assertThat(usage.getOriginalJobName(), is("producer"));
+                assertThat(usage.getOriginalBuildNumber(), is(7));
+                assertThat(usage.getBuildCount(), is(1));
+            }
+        }
+        assertThat(storage.lookupAcrossInstances(Util.getDigestOf("unknown")).isEmpty(), is(true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldShareContent(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        storage.setSharedContent(true);
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        OnlineMigrationWork.run(supplier, TaskListener.NULL, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        String id = Util.getDigestOf("shouldShareContent");
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add("a", 3);
+        assertThat(countRows(supplier, COUNT_CONTENT, id), is(1));
+        assertThat(countRows(supplier, COUNT_SHARING, id), is(1));
+
+        Fingerprint loaded = Fingerprint.load(id);
+        assertThat(loaded, is(not(nullValue())));
+        assertThat(loaded.toString(), is(fingerprint.toString()));
+
+        // Content differing from the shared content is stored by the instance
+        String otherId = Util.getDigestOf("shouldShareContentDiffering");
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        storage.prepareStatement(supplier, connection, Queries.INSERT_FINGERPRINT_CONTENT)) {
+            preparedStatement.setString(1, otherId);
+            preparedStatement.setTimestamp(2, new Timestamp(0));
+            preparedStatement.setString(3, "bar.jar");
+            preparedStatement.setNull(4, Types.NULL);
+            preparedStatement.setNull(5, Types.NULL);
+            preparedStatement.executeUpdate();
+        }
+        Fingerprint other = new Fingerprint(null, "foo.jar", Util.fromHexString(otherId));
+        assertThat(countRows(supplier, COUNT_SHARING, otherId), is(0));
+        assertThat(Fingerprint.load(otherId).getFileName(), is("foo.jar"));
+
+        Fingerprint.delete(id);
+        assertThat(countRows(supplier, COUNT_CONTENT, id), is(0));
+        assertThat(Fingerprint.load(id), is(nullValue()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldPrefetchFingerprintsOfBuild(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        OnlineMigrationWork.run(supplier, TaskListener.NULL, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        List<Fingerprint> fingerprints = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String id = Util.getDigestOf("shouldPrefetchFingerprintsOfBuild" + i);
+            Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+            fingerprint.add("a", 3);
+            fingerprint.add("b", i);
+            fingerprint.getPersistedFacets().add(new TestFacet(fingerprint, 3, "a" + i));
+            fingerprint.save();
+            fingerprints.add(fingerprint);
+        }
+
+        assertThat(storage.prefetch("a", 3), is(3));
+        assertThat(storage.prefetch("a", 3), is(0));
+        assertThat(storage.prefetch("b", 7), is(0));
+        for (Fingerprint fingerprint : fingerprints) {
+            Fingerprint prefetched = storage.getPrefetchBuffer().get(fingerprint.getHashString());
+            assertThat(prefetched, is(not(nullValue())));
+            assertThat(prefetched.toString(), is(fingerprint.toString()));
+            assertThat(storage.load(fingerprint.getHashString()), is(prefetched));
+        }
+
+        Fingerprint changed = fingerprints.get(0);
+        changed.add("c", 1);
+        assertThat(storage.getPrefetchBuffer().get(changed.getHashString()), is(nullValue()));
+        assertThat(storage.load(changed.getHashString()).toString(), is(changed.toString()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldPrefetchFingerprintsOfBuildWhenAccessed(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        OnlineMigrationWork.run(
+                storage.getConnectionSupplier(), TaskListener.NULL, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+
+        FreeStyleProject project = j.createFreeStyleProject("prefetched");
+        FreeStyleBuild build = j.buildAndAssertSuccess(project);
+        String id = Util.getDigestOf("shouldPrefetchFingerprintsOfBuildWhenAccessed");
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+        fingerprint.add(project.getFullName(), build.getNumber());
+        build.addAction(new Fingerprinter.FingerprintAction(build, Collections.singletonMap("foo.jar", id)));
+        assertThat(storage.getPrefetchBuffer().isPrefetched(project.getFullName(), build.getNumber()), is(false));
+
+        // Listed when the build is rendered
+        build.getAllActions();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!storage.getPrefetchBuffer().isPrefetched(project.getFullName(), build.getNumber())) {
+            assertThat(System.nanoTime() - deadline < 0, is(true));
+            Thread.sleep(100);
+        }
+        assertThat(storage.getPrefetchBuffer().get(id).toString(), is(fingerprint.toString()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldMaintainJobSummaries(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+
+        Fingerprint first = new Fingerprint(null, "foo.jar", Util.fromHexString(Util.getDigestOf("summary1")));
+        first.add("a", 1);
+        first.add("a", 2);
+        first.add("b", 1);
+        Fingerprint second = new Fingerprint(null, "bar.jar", Util.fromHexString(Util.getDigestOf("summary2")));
+        second.add("a", 3);
+
+        JobUsageSummary a = storage.getJobSummary("a");
+        assertThat(a, is(not(nullValue())));
+        assertThat(a.getFingerprintCount(), is(2L));
+        assertThat(a.getUsageCount(), is(3L));
+        assertThat(storage.getJobSummaries().size(), is(2));
+
+        first.add("b", 2);
+        assertThat(storage.getJobSummary("b").getUsageCount(), is(2L));
+        assertThat(storage.getJobSummary("b").getFingerprintCount(), is(1L));
+
+        storage.delete(first.getHashString());
+        a = storage.getJobSummary("a");
+        assertThat(a.getFingerprintCount(), is(1L));
+        assertThat(a.getUsageCount(), is(1L));
+        assertThat(storage.getJobSummary("b"), is(nullValue()));
+
+        // The backfill rebuilds the summaries of usages saved before the table existed
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        connection.prepareStatement("DELETE FROM FINGERPRINT_JOB_SUMMARY")) {
+            preparedStatement.executeUpdate();
+        }
+        assertThat(storage.getJobSummaries(), is(empty()));
+        OnlineMigrationWork.run(supplier, TaskListener.NULL, System.nanoTime() + TimeUnit.MINUTES.toNanos(1));
+        a = storage.getJobSummary("a");
+        assertThat(a.getFingerprintCount(), is(1L));
+        assertThat(a.getUsageCount(), is(1L));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldEmitFlightRecorderEvents(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(Util.getDigestOf("events")));
+        fingerprint.addWithoutSaving("a", 1);
+        fingerprint.addWithoutSaving("a", 2);
+        fingerprint.addWithoutSaving("b", 1);
+        fingerprint.getPersistedFacets().add(new TestFacet(fingerprint, 3, "a"));
+        String id = fingerprint.getHashString();
+
+        List<RecordedEvent> events;
+        try (Recording recording = new Recording()) {
+            recording.enable("io.jenkins.plugins.sql.fingerprint.storage.Save").withThreshold(Duration.ZERO);
+            recording.enable("io.jenkins.plugins.sql.fingerprint.storage.Load").withThreshold(Duration.ZERO);
+            recording.start();
+            storage.save(fingerprint);
+            assertThat(storage.load(id), is(not(nullValue())));
+            recording.stop();
+            Path dump = Files.createTempFile("fingerprint-events", ".jfr");
+            try {
+                recording.dump(dump);
+                events = RecordingFile.readAllEvents(dump);
+            } finally {
+                Files.delete(dump);
+            }
+        }
+
+        RecordedEvent save = findEvent(events, "Save", id);
+        assertThat(save.getString("dialect"), is(database));
+        assertThat(save.getBoolean("succeeded"), is(true));
+        assertThat(save.getInt("usageRows"), is(3));
+        assertThat(save.getInt("facetRows"), is(1));
+        assertThat(save.getLong("facetBytes"), Matchers.greaterThan(0L));
+        assertThat(save.getDuration("sqlDuration").toNanos(), Matchers.greaterThan(0L));
+        assertThat(save.getDuration("waitDuration").toNanos(), Matchers.greaterThan(0L));
+        assertThat(save.getDuration("conversionDuration").toNanos(), Matchers.greaterThan(0L));
+
+        RecordedEvent load = findEvent(events, "Load", id);
+        assertThat(load.getString("dialect"), is(database));
+        assertThat(load.getBoolean("succeeded"), is(true));
+        assertThat(load.getBoolean("found"), is(true));
+        assertThat(load.getInt("usageRows"), is(3));
+        assertThat(load.getLong("facetBytes"), Matchers.greaterThan(0L));
+        assertThat(load.getDuration("sqlDuration").toNanos(), Matchers.greaterThan(0L));
+        assertThat(load.getDuration("waitDuration").toNanos(), Matchers.greaterThan(0L));
+        assertThat(load.getDuration("conversionDuration").toNanos(), Matchers.greaterThan(0L));
+    }
+
+    private static RecordedEvent findEvent(List<RecordedEvent> events, String type, String id) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals("io.jenkins.plugins.sql.fingerprint.storage." + type)
+                    && id.equals(event.getString("fingerprintId"))) {
+                return event;
+            }
+        }
+        throw new AssertionError("No " + type + " event recorded for fingerprint " + id + " in " + events);
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldPageThroughUsagesOfLargeFingerprints(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+
+        Fingerprint fingerprint = new Fingerprint(null, "base.tar", Util.fromHexString(Util.getDigestOf("large")));
+        for (String job : new String[] {"a", "b", "c"}) {
+            for (int build = 1; build <= 20; build += job.equals("b") ? 2 : 1) {
+                fingerprint.addWithoutSaving(job, build);
+            }
+        }
+        storage.save(fingerprint);
+        String id = fingerprint.getHashString();
+
+        // Pages of 7 usages split the builds of the jobs
+        Map<String, Fingerprint.RangeSet> usages = new TreeMap<>();
+        int pages = 0;
+        FingerprintUsagePage page = null;
+        do {
+            page = storage.getUsages(id, page, 7);
+            assertThat(page.size() <= 7, is(true));
+            page.getUsages().forEach((job, builds) -> usages.computeIfAbsent(job, k -> new Fingerprint.RangeSet())
+                    .add(builds));
+            pages++;
+        } while (!page.isLast());
+        assertThat(pages, is(8));
+        assertThat(usages.toString(), is(new TreeMap<>(fingerprint.getUsages()).toString()));
+
+        // A fingerprint loaded partially keeps the usages it was not loaded with once saved
+        storage.setMaxEagerUsages(10);
+        Fingerprint partial = storage.load(id);
+        assertThat(partial, is(not(nullValue())));
+        assertThat(partial.getUsages().keySet(), is(Set.of("a")));
+        assertThat(storage.getEagerUsages(partial), is(not(nullValue())));
+        assertThat(storage.getUsages(id, storage.getEagerUsages(partial), 100).size(), is(40));
+        partial.addWithoutSaving("d", 1);
+        storage.save(partial);
+        assertThat(storage.getEagerUsages(partial), is(nullValue()));
+
+        storage.setMaxEagerUsages(0);
+        Fingerprint full = storage.load(id);
+        assertThat(full, is(not(nullValue())));
+        fingerprint.addWithoutSaving("d", 1);
+        assertThat(new TreeMap<>(full.getUsages()).toString(), is(new TreeMap<>(fingerprint.getUsages()).toString()));
+        assertThat(storage.getEagerUsages(full), is(nullValue()));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldNotCleanUpFingerprintsUsedBeyondEagerUsages(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        FreeStyleProject project = j.createFreeStyleProject("z-live");
+        j.buildAndAssertSuccess(project);
+
+        // The builds of the deleted job come first, the live build only follows the usages loaded eagerly
+        Fingerprint fingerprint =
+                new Fingerprint(null, "foo.jar", Util.fromHexString(Util.getDigestOf("cleanupBeyondEagerUsages")));
+        for (int build = 1; build <= 20; build++) {
+            fingerprint.addWithoutSaving("deleted", build);
+        }
+        fingerprint.addWithoutSaving(project.getFullName(), 1);
+        storage.save(fingerprint);
+        String id = fingerprint.getHashString();
+
+        storage.setMaxEagerUsages(10);
+        try {
+            storage.iterateAndCleanupFingerprints(TaskListener.NULL);
+        } finally {
+            storage.setMaxEagerUsages(0);
+        }
+
+        Fingerprint cleaned = storage.load(id);
+        assertThat(cleaned, is(not(nullValue())));
+        assertThat(cleaned.getUsages().containsKey(project.getFullName()), is(true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldRunMaintenanceStatements(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(Util.getDigestOf("maintenance")));
+        fingerprint.add("a", 1);
+        storage.delete(fingerprint.getHashString());
+
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        List<String> statements = new ArrayList<>();
+        try (Connection connection = supplier.connection()) {
+            for (String table : MaintenanceWork.TABLES) {
+                for (String statement : supplier.getDialect().getMaintenanceStatements(connection, table)) {
+                    SqlDialect.execute(connection, statement);
+                    statements.add(statement);
+                }
+            }
+        }
+        // Tables this small are never compacted, MariaDB and MySQL refresh their statistics every time
+        for (String statement : statements) {
+            assertThat(statement, Matchers.startsWith("ANALYZE "));
+        }
+        if (database.equals("mariadb") || database.equals("mysql")) {
+            assertThat(statements.size(), is(MaintenanceWork.TABLES.size()));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldCancelMaintenanceStatementWhenTheWindowCloses(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        String statement;
+        if (database.equals("postgresql")) {
+            statement = "SELECT pg_sleep(60)";
+        } else if (database.equals("h2")) {
+            statement = "SELECT COUNT(*) FROM SYSTEM_RANGE(1, 100000000000)";
+        } else {
+            statement = "SELECT SLEEP(60)";
+        }
+
+        MaintenanceWork work = new MaintenanceWork();
+        long start = System.nanoTime();
+        boolean completed = work.runStatement(
+                storage,
+                supplier,
+                supplier.getDialect(),
+                statement,
+                TaskListener.NULL,
+                start + TimeUnit.SECONDS.toNanos(2));
+
+        assertThat(completed, is(false));
+        assertThat(System.nanoTime() - start, Matchers.lessThan(TimeUnit.SECONDS.toNanos(30)));
+        List<String> report = work.getReport();
+        assertThat(report.get(report.size() - 1), Matchers.endsWith("closed during " + statement + ", cancelled"));
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void shouldRecordSlowStatementsWithTheirPlan(String database, JenkinsRule j) throws Exception {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+        // Statements are only wrapped once a threshold is set
+        assertThat(storage.getSlowOperationThreshold(), is(0));
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement =
+                        storage.prepareStatement(supplier, connection, Queries.SELECT_FINGERPRINT)) {
+            assertThat(Proxy.isProxyClass(preparedStatement.getClass()), is(false));
+        }
+
+        SlowOperationLog log = storage.getSlowOperationLog();
+        log.clear();
+
+        String sql = supplier.getDialect().getQuery(Queries.SELECT_FINGERPRINT);
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement = log.monitor(
+                        connection.prepareStatement(sql), supplier, Queries.SELECT_FINGERPRINT, sql, 0)) {
+            preparedStatement.setString(1, Util.getDigestOf("shouldRecordSlowStatements"));
+            preparedStatement.setString(2, storage.getInstanceId());
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                assertThat(resultSet.next(), is(false));
+            }
+        }
+
+        List<SlowOperationLog.SlowOperation> operations = log.getOperations();
+        assertThat(operations.size(), is(1));
+        SlowOperationLog.SlowOperation operation = operations.get(0);
+        assertThat(operation.getQuery(), is(Queries.SELECT_FINGERPRINT));
+        assertThat(operation.getDialect(), is(database));
+        assertThat(operation.getParameters(), is("string(32), string(32)"));
+
+        // The plan is captured in the background
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (operation.getPlan() == null && System.nanoTime() - deadline < 0) {
+            Thread.sleep(100);
+        }
+        assertThat(operation.getPlan(), is(not(nullValue())));
+        assertThat(log.shouldCapturePlan(Queries.SELECT_FINGERPRINT), is(false));
+    }
+
+    private static final String COUNT_CONTENT = "SELECT COUNT(*) FROM FINGERPRINT_CONTENT WHERE FINGERPRINT_ID = ?";
+    private static final String COUNT_SHARING = "SELECT COUNT(*) FROM FINGERPRINT WHERE CONTENT_ID = ?";
+
+    private static int countRows(SqlFingerprintStorage.ConnectionSupplier supplier, String sql, String id)
+            throws SQLException {
+        try (Connection connection = supplier.connection();
+                PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void exportAndImportRoundTrip(String database, JenkinsRule j) throws IOException {
+        setConfiguration(database);
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+
+        List<Fingerprint> savedFingerprints = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String id = Util.getDigestOf("exportAndImportRoundTrip" + i);
+            Fingerprint fingerprint = new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+            fingerprint.add("a", 3);
+            fingerprint.add("a", 4);
+            fingerprint.add("b", 33);
+            fingerprint.getPersistedFacets().add(new TestFacet(fingerprint, 3, "a" + i));
+            fingerprint.save();
+            savedFingerprints.add(fingerprint);
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        FingerprintArchive.Statistics exported = storage.export(archive);
+        assertThat(exported.getFingerprints(), is(3L));
+        assertThat(exported.getUsages(), is(9L));
+        assertThat(exported.getFacets(), is(3L));
+
+        for (Fingerprint fingerprint : savedFingerprints) {
+            Fingerprint.delete(fingerprint.getHashString());
+        }
+
+        FingerprintArchive.Statistics imported = storage.importFrom(new ByteArrayInputStream(archive.toByteArray()));
+        assertThat(imported.getFingerprints(), is(3L));
+        assertThat(imported.getUsages(), is(9L));
+        assertThat(imported.getFacets(), is(3L));
+
+        for (Fingerprint fingerprintSaved : savedFingerprints) {
+            Fingerprint fingerprintLoaded = Fingerprint.load(fingerprintSaved.getHashString());
+            assertThat(fingerprintLoaded, is(not(Matchers.nullValue())));
+            assertThat(fingerprintLoaded.toString(), is(Matchers.equalTo(fingerprintSaved.toString())));
+        }
+    }
+
     public static final class TestFacet extends FingerprintFacet {
         final String property;
 
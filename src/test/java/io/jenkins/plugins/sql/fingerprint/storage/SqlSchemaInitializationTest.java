@@ -3,27 +3,36 @@ package io.jenkins.plugins.sql.fingerprint.storage;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.notNullValue;
 
 import hudson.Util;
 import hudson.model.Fingerprint;
+import hudson.model.TaskListener;
 import hudson.util.Secret;
 import io.jenkins.plugins.database.mariadb.MariaDbDatabase;
+import java.io.File;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Stream;
 
 import jenkins.fingerprints.GlobalFingerprintConfiguration;
+import jenkins.model.Jenkins;
 import org.hamcrest.Matchers;
 import org.jenkinsci.plugins.database.AbstractRemoteDatabase;
+import org.jenkinsci.plugins.database.Database;
 import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
+import org.jenkinsci.plugins.database.h2.LocalH2Database;
+import org.jenkinsci.plugins.database.mysql.MySQLDatabase;
 import org.jenkinsci.plugins.database.postgresql.PostgreSQLDatabase;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 import org.testcontainers.containers.MariaDBContainer;
+import org.testcontainers.containers.MySQLContainer;
 import org.testcontainers.containers.PostgreSQLContainer;
 import org.testcontainers.junit.jupiter.Container;
 import org.testcontainers.junit.jupiter.Testcontainers;
@@ -34,7 +43,7 @@ public class SqlSchemaInitializationTest {
 
     // Tested databases
     private static Stream<String> databases() {
-        return Stream.of("postgresql", "mariadb");
+        return Stream.of("postgresql", "mariadb", "mysql", "h2");
     }
 
     @Container
@@ -43,31 +52,59 @@ public class SqlSchemaInitializationTest {
     @Container
     public MariaDBContainer<?> mariadb = new MariaDBContainer<>("mariadb:11.2.2");
 
+    @Container
+    public MySQLContainer<?> mysql = new MySQLContainer<>("mysql:8.0.36");
+
     public void setConfiguration(String type) throws IOException {
+        configure(type);
+        DatabaseSchemaLoader.migrateSchema();
+    }
 
-        // The remote database configuration
-        AbstractRemoteDatabase database;
+    private void configure(String type) throws IOException {
+
+        // The database configuration
+        Database database;
 
         // PostgreSQL
         if (type.equals("postgresql")) {
-            database = new PostgreSQLDatabase(
+            AbstractRemoteDatabase remoteDatabase = new PostgreSQLDatabase(
                     postgres.getHost() + ":" + postgres.getMappedPort(5432),
                     postgres.getDatabaseName(),
                     postgres.getUsername(),
                     Secret.fromString(postgres.getPassword()),
                     null);
-            database.setValidationQuery("SELECT 1");
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
         }
 
         // MariaDB
         else if (type.equals("mariadb")) {
-            database = new MariaDbDatabase(
+            AbstractRemoteDatabase remoteDatabase = new MariaDbDatabase(
                     mariadb.getHost() + ":" + mariadb.getMappedPort(3306),
                     mariadb.getDatabaseName(),
                     mariadb.getUsername(),
                     Secret.fromString(mariadb.getPassword()),
                     null);
-            database.setValidationQuery("SELECT 1");
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
+        }
+
+        // MySQL
+        else if (type.equals("mysql")) {
+            AbstractRemoteDatabase remoteDatabase = new MySQLDatabase(
+                    mysql.getHost() + ":" + mysql.getMappedPort(3306),
+                    mysql.getDatabaseName(),
+                    mysql.getUsername(),
+                    Secret.fromString(mysql.getPassword()),
+                    null);
+            remoteDatabase.setValidationQuery("SELECT 1");
+            database = remoteDatabase;
+        }
+
+        // H2, embedded
+        else if (type.equals("h2")) {
+            database = new LocalH2Database(
+                    new File(Jenkins.get().getRootDir(), "fingerprints"), false, "sa", Secret.fromString(""));
         } else {
             throw new IllegalArgumentException("Invalid database type");
         }
@@ -75,14 +112,48 @@ public class SqlSchemaInitializationTest {
         GlobalDatabaseConfiguration.get().setDatabase(database);
         SqlFingerprintStorage sqlFingerPrintStorage = SqlFingerprintStorage.get();
         GlobalFingerprintConfiguration.get().setStorage(sqlFingerPrintStorage);
-        DatabaseSchemaLoader.migrateSchema();
     }
 
     @ParameterizedTest
     @MethodSource("databases")
     public void testSchemaInitialization(String database, JenkinsRule rule) throws Exception {
+        configure(database);
+        DatabaseSchemaLoader.startMigration();
+
+        // Connections are handed out once the migration started at startup completed
+        SqlFingerprintStorage.ConnectionSupplier supplier = SqlFingerprintStorage.get().getConnectionSupplier();
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        Connection connection = null;
+        while (connection == null) {
+            try {
+                connection = supplier.connection();
+            } catch (SqlFingerprintStorage.ConnectionSupplier.UnavailableException e) {
+                if (System.nanoTime() - deadline > 0) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+        try (Connection migrated = connection) {
+            SqlDialect dialect = supplier.getDialect();
+            Database configured = GlobalDatabaseConfiguration.get().getDatabase();
+            assertThat(
+                    DatabaseSchemaLoader.getRecordedSchemaVersion(dialect, configured.getDataSource()),
+                    is(dialect.getSchemaVersion()));
+            // Created by the migrations, read by the online migrations
+            assertThat(OnlineMigrationWork.readStatuses(dialect, migrated), is(notNullValue()));
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void testSchemaVersionMatchesMigrations(String database, JenkinsRule rule) throws Exception {
         setConfiguration(database);
-        assertThat(DatabaseSchemaLoader.MIGRATED, is(true));
+        Database configured = GlobalDatabaseConfiguration.get().getDatabase();
+        SqlDialect dialect = SqlDialect.forDatabase(configured);
+        assertThat(
+                DatabaseSchemaLoader.getRecordedSchemaVersion(dialect, configured.getDataSource()),
+                is(dialect.getSchemaVersion()));
     }
 
     @ParameterizedTest
@@ -112,4 +183,39 @@ public class SqlSchemaInitializationTest {
         assertThat(fingerprintLoaded, is(not(Matchers.nullValue())));
         assertThat(fingerprintLoaded.toString(), is(Matchers.equalTo(fingerprintSaved.toString())));
     }
+
+    @ParameterizedTest
+    @MethodSource("databases")
+    public void testOnlineMigrations(String database, JenkinsRule rule) throws Exception {
+        setConfiguration(database);
+        String id = Util.getDigestOf("testOnlineMigrations");
+        new Fingerprint(null, "foo.jar", Util.fromHexString(id));
+
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        SqlFingerprintStorage.ConnectionSupplier supplier = storage.getConnectionSupplier();
+
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        OnlineMigrationWork.run(supplier, TaskListener.NULL, deadline);
+        assertThat(supplier.areMigrationsComplete(), is(true));
+        try (Connection connection = supplier.connection()) {
+            assertThat(
+                    SqlDialect.indexExists(
+                            connection,
+                            "FINGERPRINT_JOB_BUILD_RELATION",
+                            "FINGERPRINT_JOB_BUILD_RELATION_BUILD_INDEX"),
+                    is(true));
+        }
+        // One save when the fingerprint was created, one recorded by the backfill
+        assertThat(storage.getChanges(0, 0, 100).size(), is(2));
+
+        // Completed migrations are not run again
+        OnlineMigrationWork.run(supplier, TaskListener.NULL, deadline);
+        assertThat(storage.getChanges(0, 0, 100).size(), is(2));
+
+        // After a restart, completed migrations are relied on from the first connection
+        SqlFingerprintStorage.ConnectionSupplier restarted = new SqlFingerprintStorage.LocalConnectionSupplier();
+        try (Connection connection = restarted.connection()) {
+            assertThat(restarted.areMigrationsComplete(), is(true));
+        }
+    }
 }
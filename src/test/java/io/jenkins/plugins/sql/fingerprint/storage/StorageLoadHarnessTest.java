@@ -0,0 +1,207 @@
+package io.jenkins.plugins.sql.fingerprint.storage;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import hudson.Util;
+import hudson.model.Fingerprint;
+import hudson.util.Secret;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.fingerprints.GlobalFingerprintConfiguration;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.database.GlobalDatabaseConfiguration;
+import org.jenkinsci.plugins.database.h2.LocalH2Database;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+/**
+ * Simulates concurrent builds fingerprinting overlapping sets of artifacts against the embedded H2 database, and
+ * writes the throughput, latencies and lock waits to a JSON report to compare releases and configurations.
+ * <p>
+ * The defaults keep the run short enough for every build. Heavier runs are configured with system properties:
+ * <pre>
+ * mvn test -Dtest=StorageLoadHarnessTest -DloadHarness.builds=64 -DloadHarness.iterations=500
+ * </pre>
+ */
+@WithJenkins
+public class StorageLoadHarnessTest {
+
+    private static final Logger LOGGER = Logger.getLogger(StorageLoadHarnessTest.class.getName());
+
+    private static final int BUILDS = Integer.getInteger("loadHarness.builds", 8);
+    private static final int ITERATIONS = Integer.getInteger("loadHarness.iterations", 20);
+    private static final int JOBS = Integer.getInteger("loadHarness.jobs", 4);
+    private static final int ARTIFACTS = Integer.getInteger("loadHarness.artifacts", 50);
+    private static final int ARTIFACTS_PER_BUILD = Integer.getInteger("loadHarness.artifactsPerBuild", 10);
+    private static final String REPORT =
+            System.getProperty("loadHarness.report", "target/sql-fingerprint-storage-load.json");
+
+    private final LatencyHistogram lookups = new LatencyHistogram();
+    private final LatencyHistogram saves = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+
+    @Test
+    public void runLoad(JenkinsRule j) throws Exception {
+        GlobalDatabaseConfiguration.get()
+                .setDatabase(new LocalH2Database(
+                        new File(Jenkins.get().getRootDir(), "fingerprints"), false, "sa", Secret.fromString("")));
+        SqlFingerprintStorage storage = SqlFingerprintStorage.get();
+        GlobalFingerprintConfiguration.get().setStorage(storage);
+        DatabaseSchemaLoader.migrateSchema();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        boolean contentionMonitored = threads.isThreadContentionMonitoringSupported();
+        if (contentionMonitored) {
+            threads.setThreadContentionMonitoringEnabled(true);
+        }
+
+        List<Long> workerIds = new ArrayList<>();
+        long[] usagesPerArtifact = new long[ARTIFACTS];
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(BUILDS);
+        long startNanos;
+        long[] lockWait = new long[2];
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int b = 0; b < BUILDS; b++) {
+                int build = b;
+                for (int a = 0; a < ARTIFACTS_PER_BUILD; a++) {
+                    usagesPerArtifact[artifact(build, a)] += ITERATIONS;
+                }
+                futures.add(executor.submit(() -> {
+                    synchronized (workerIds) {
+                        workerIds.add(Thread.currentThread().getId());
+                    }
+                    start.await();
+                    runBuild(build);
+                    return null;
+                }));
+            }
+            startNanos = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (contentionMonitored) {
+                for (long id : workerIds) {
+                    ThreadInfo info = threads.getThreadInfo(id);
+                    if (info != null) {
+                        lockWait[0] += info.getBlockedTime();
+                        lockWait[1] += info.getWaitedTime();
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        long durationNanos = System.nanoTime() - startNanos;
+
+        long lostUsages = 0;
+        for (int a = 0; a < ARTIFACTS; a++) {
+            Fingerprint fingerprint = storage.load(idOf(a));
+            long saved = 0;
+            if (fingerprint != null) {
+                for (Fingerprint.RangeSet rangeSet : fingerprint.getUsages().values()) {
+                    saved += rangeSet.listNumbers().size();
+                }
+            }
+            lostUsages += usagesPerArtifact[a] - saved;
+        }
+
+        JSONObject report = new JSONObject()
+                .put("database", "h2")
+                .put("builds", BUILDS)
+                .put("iterations", ITERATIONS)
+                .put("jobs", JOBS)
+                .put("artifacts", ARTIFACTS)
+                .put("artifactsPerBuild", ARTIFACTS_PER_BUILD)
+                .put("maxConcurrentOperations", storage.getMaxConcurrentOperations())
+                .put("durationMillis", TimeUnit.NANOSECONDS.toMillis(durationNanos))
+                .put("operations", lookups.getCount() + saves.getCount())
+                .put("throughputPerSecond", (lookups.getCount() + saves.getCount()) * 1e9 / durationNanos)
+                .put("lookup", toJSON(lookups))
+                .put("save", toJSON(saves))
+                .put("contentionMonitored", contentionMonitored)
+                .put("blockedMillis", lockWait[0])
+                .put("waitedMillis", lockWait[1])
+                .put("errors", errors.get())
+                .put("lostUsages", lostUsages);
+        File file = new File(REPORT);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        Files.write(file.toPath(), report.toString(2).getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Load report written to " + file.getAbsolutePath() + ": " + report);
+
+        assertThat(errors.get(), is(0L));
+        assertThat(lostUsages, is(0L));
+    }
+
+    /**
+     * Runs the builds of one executor: each build records a usage of its artifacts, like the fingerprint publisher.
+     */
+    private void runBuild(int build) {
+        String job = "job-" + (build % JOBS);
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            // Builds of the same job get distinct numbers, builds of different jobs share them
+            int number = iteration * BUILDS + build + 1;
+            for (int a = 0; a < ARTIFACTS_PER_BUILD; a++) {
+                int artifact = artifact(build, a);
+                try {
+                    long lookupStart = System.nanoTime();
+                    Fingerprint fingerprint = Jenkins.get()
+                            .getFingerprintMap()
+                            .getOrCreate(null, "artifact-" + artifact + ".jar", idOf(artifact));
+                    lookups.record(System.nanoTime() - lookupStart);
+
+                    long saveStart = System.nanoTime();
+                    fingerprint.add(job, number);
+                    saves.record(System.nanoTime() - saveStart);
+                } catch (IOException | RuntimeException e) {
+                    errors.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Failed fingerprinting artifact " + artifact, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the artifacts used by a build: consecutive builds share most of their artifacts.
+     */
+    private static int artifact(int build, int index) {
+        return (build * Math.max(1, ARTIFACTS_PER_BUILD / 2) + index) % ARTIFACTS;
+    }
+
+    private static String idOf(int artifact) {
+        return Util.getDigestOf("artifact-" + artifact);
+    }
+
+    private static JSONObject toJSON(LatencyHistogram histogram) {
+        return new JSONObject()
+                .put("count", histogram.getCount())
+                .put("meanMillis", histogram.getMeanMillis())
+                .put("p50Millis", histogram.getPercentileMillis(0.5))
+                .put("p99Millis", histogram.getPercentileMillis(0.99))
+                .put("p999Millis", histogram.getPercentileMillis(0.999))
+                .put("maxMillis", histogram.getMaxMillis());
+    }
+}